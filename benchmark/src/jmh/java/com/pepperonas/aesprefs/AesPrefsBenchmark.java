@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks get and put of {@link AesPrefs} end to end on an in-memory store, with and without
+ * the cache.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AesPrefsBenchmark {
+
+    private static final int KEYS = 256;
+
+    @Param({"0", "512"})
+    public int cacheSize;
+
+    private String[] mKeys;
+
+    private String[] mIntKeys;
+
+    private String[] mBoolKeys;
+
+    private int mNext = 0;
+
+    @Setup
+    public void setup() {
+        if (cacheSize > 0) {
+            AesPrefs.enableCache(cacheSize);
+        } else {
+            AesPrefs.disableCache();
+        }
+        AesPrefs.init(new MemoryBackend(), "benchmark");
+        mKeys = new String[KEYS];
+        mIntKeys = new String[KEYS];
+        mBoolKeys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            mKeys[i] = "key" + i;
+            mIntKeys[i] = "int" + i;
+            mBoolKeys[i] = "bool" + i;
+            AesPrefs.put(mKeys[i], "value of " + mKeys[i]);
+            AesPrefs.putIntValue(mIntKeys[i], i * 1000);
+            AesPrefs.putBoolValue(mBoolKeys[i], i % 2 == 0);
+        }
+    }
+
+    private int nextIndex() {
+        mNext = (mNext + 1) % KEYS;
+        return mNext;
+    }
+
+    private String nextKey() {
+        return mKeys[nextIndex()];
+    }
+
+    @Benchmark
+    public void put() {
+        String key = nextKey();
+        AesPrefs.put(key, key);
+    }
+
+    @Benchmark
+    public String get() {
+        return AesPrefs.get(nextKey(), null);
+    }
+
+    @Benchmark
+    public void putInt() {
+        AesPrefs.putInt(mIntKeys[nextIndex()], mNext);
+    }
+
+    @Benchmark
+    public Integer getInt() {
+        return AesPrefs.getInt(mIntKeys[nextIndex()], null);
+    }
+
+    @Benchmark
+    public int getIntValue() {
+        return AesPrefs.getIntValue(mIntKeys[nextIndex()], -1);
+    }
+
+    @Benchmark
+    public boolean getBoolValue() {
+        return AesPrefs.getBoolValue(mBoolKeys[nextIndex()], false);
+    }
+
+    @Benchmark
+    public long incrementAndGet() {
+        return AesPrefs.incrementAndGet(mIntKeys[nextIndex()], 1);
+    }
+
+}
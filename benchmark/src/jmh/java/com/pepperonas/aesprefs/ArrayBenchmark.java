@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the list methods of {@link AesPrefs} on an in-memory store.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ArrayBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    private List<String> mValues;
+
+    @Setup
+    public void setup() {
+        AesPrefs.init(new MemoryBackend(), "benchmark");
+        mValues = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            mValues.add("element " + i);
+        }
+        AesPrefs.storeArray("list", mValues);
+    }
+
+    @Benchmark
+    public void storeArray() {
+        AesPrefs.storeArray("stored", mValues);
+    }
+
+    @Benchmark
+    public List<String> restoreArray() {
+        return AesPrefs.restoreArray("list");
+    }
+
+    /**
+     * Appends and removes the last element, so the list keeps its size.
+     */
+    @Benchmark
+    public String appendAndRemove() {
+        AesPrefs.appendToArray("list", "appended");
+        return AesPrefs.removeFromArray("list", size);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the put and get of a JSON string with and without the compression of large values,
+ * see {@link AesStore.Builder#compressionThreshold(int)}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompressionBenchmark {
+
+    @Param({"0", "512"})
+    public int threshold;
+
+    @Param({"64", "8192"})
+    public int size;
+
+    private AesStore mStore;
+
+    private String mJson;
+
+    @Setup
+    public void setup() {
+        mStore = new AesStore.Builder(new MemoryBackend())
+                .password("benchmark")
+                .compressionThreshold(threshold)
+                .build();
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; json.length() < size; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"user").append(i)
+                    .append("\",\"active\":").append(i % 3 == 0).append("},");
+        }
+        json.setLength(size - 1);
+        mJson = json.append(']').toString();
+        mStore.put("json", mJson);
+    }
+
+    @Benchmark
+    public void put() {
+        mStore.put("json", mJson);
+    }
+
+    @Benchmark
+    public String get() {
+        return mStore.get("json", null);
+    }
+
+}
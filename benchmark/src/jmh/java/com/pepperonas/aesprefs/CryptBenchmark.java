@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import com.pepperonas.aesprefs.Crypt.CryptSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Benchmarks {@link Crypt#enc(CipherSuite, SecretKey, byte[])} and
+ * {@link Crypt#dec(CipherSuite, SecretKey, byte[], byte[])} per cipher suite and value size.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CryptBenchmark {
+
+    @Param({"AES_CBC", "AES_GCM"})
+    public String suite;
+
+    @Param({"16", "256", "4096"})
+    public int size;
+
+    private CipherSuite mSuite;
+
+    private SecretKey mKey;
+
+    private byte[] mPlain;
+
+    private CryptSet mEncrypted;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        mSuite = CipherSuite.valueOf(suite);
+        mKey = Crypt.getSecretKey("benchmark", null).getSecretKey();
+        mPlain = new byte[size];
+        new Random(42).nextBytes(mPlain);
+        mEncrypted = Crypt.enc(mSuite, mKey, mPlain);
+    }
+
+    @Benchmark
+    public CryptSet enc() throws GeneralSecurityException {
+        return Crypt.enc(mSuite, mKey, mPlain);
+    }
+
+    @Benchmark
+    public byte[] dec() throws GeneralSecurityException {
+        return Crypt.dec(mSuite, mKey, mEncrypted.getIv(), mEncrypted.getEncrypted());
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.util.Base64;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the framing of a value as {@link Record} and its Base64 text form, which every get
+ * and put goes through next to the cipher.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecordBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int size;
+
+    private Record mRecord;
+
+    private byte[] mEncoded;
+
+    private String mBase64;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        byte[] plain = new byte[size];
+        new Random(42).nextBytes(plain);
+        Crypt.CryptSet cs = Crypt.enc(CipherSuite.AES_GCM,
+                Crypt.getSecretKey("benchmark", null).getSecretKey(), plain);
+        mRecord = new Record(Record.VERSION_3, CipherSuite.AES_GCM, (byte) 0, cs);
+        mEncoded = mRecord.encode();
+        mBase64 = Base64.encodeToString(mEncoded, Base64.NO_WRAP);
+    }
+
+    @Benchmark
+    public byte[] encodeRecord() {
+        return mRecord.encode();
+    }
+
+    @Benchmark
+    public Record decodeRecord() {
+        return Record.decode(mEncoded);
+    }
+
+    @Benchmark
+    public String encodeBase64() {
+        return Base64.encodeToString(mEncoded, Base64.NO_WRAP);
+    }
+
+    @Benchmark
+    public byte[] decodeBase64() {
+        return Base64.decode(mBase64, Base64.DEFAULT);
+    }
+
+}
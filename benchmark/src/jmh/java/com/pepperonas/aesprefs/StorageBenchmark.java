@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a single put into a filled backend, which shows how the cost of a write grows with
+ * the size of the store.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StorageBenchmark {
+
+    @Param({"memory", "file", "log"})
+    public String backend;
+
+    @Param({"100", "10000"})
+    public int entries;
+
+    private File mDir;
+
+    private StorageBackend mStorage;
+
+    private String mValue;
+
+    private int mNext = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        mDir = File.createTempFile("storage", "benchmark");
+        if (!mDir.delete() || !mDir.mkdir()) {
+            throw new IOException("Failed to create " + mDir);
+        }
+        if (backend.equals("file")) {
+            mStorage = new FileBackend(new File(mDir, "store.bin"));
+        } else if (backend.equals("log")) {
+            mStorage = new LogBackend(new File(mDir, "store.log"));
+        } else {
+            mStorage = new MemoryBackend();
+        }
+        // about the length of an encrypted short string
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 100) {
+            value.append("AwIADAWmmT7BXXIveM4GXGKPRF");
+        }
+        mValue = value.toString();
+        StorageBackend.Batch batch = mStorage.edit();
+        for (int i = 0; i < entries; i++) {
+            batch.put("key" + i, mValue);
+        }
+        batch.commit();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mStorage.flush();
+        if (mStorage instanceof LogBackend) {
+            ((LogBackend) mStorage).close();
+        }
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDir.delete();
+    }
+
+    private String nextKey() {
+        mNext = (mNext + 1) % entries;
+        return "key" + mNext;
+    }
+
+    @Benchmark
+    public void apply() {
+        mStorage.edit().put(nextKey(), mValue).apply();
+    }
+
+    @Benchmark
+    public boolean commit() {
+        return mStorage.edit().put(nextKey(), mValue).commit();
+    }
+
+}
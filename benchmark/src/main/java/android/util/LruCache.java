@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for {@code android.util.LruCache}, counting one per entry.
+ */
+public class LruCache<K, V> {
+
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(0, 0.75f, true);
+
+    private int maxSize;
+
+    private int hitCount;
+
+    private int missCount;
+
+    private int evictionCount;
+
+    public LruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+    }
+
+    public final synchronized V get(K key) {
+        V value = map.get(key);
+        if (value != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return value;
+    }
+
+    public final synchronized V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        V previous = map.put(key, value);
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    public final synchronized V remove(K key) {
+        return map.remove(key);
+    }
+
+    public synchronized void resize(int maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized void trimToSize(int maxSize) {
+        while (map.size() > maxSize) {
+            map.remove(map.keySet().iterator().next());
+            evictionCount++;
+        }
+    }
+
+    public final synchronized void evictAll() {
+        map.clear();
+    }
+
+    public final synchronized int size() {
+        return map.size();
+    }
+
+    public final synchronized int maxSize() {
+        return maxSize;
+    }
+
+    public final synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public final synchronized int missCount() {
+        return missCount;
+    }
+
+    public final synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    public final synchronized Map<K, V> snapshot() {
+        return new LinkedHashMap<>(map);
+    }
+
+}
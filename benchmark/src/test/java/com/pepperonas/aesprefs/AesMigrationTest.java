@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.util.Base64;
+
+import com.pepperonas.aesprefs.AesMetrics.Operation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests that an {@link AesMigration} re-encrypts all entries and continues behind its checkpoint.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class AesMigrationTest {
+
+    private static final int ENTRIES = 300;
+
+    @Test
+    public void resumesFromCheckpoint() throws Exception {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore cbc = new AesStore.Builder(storage).password("pw").keyDerivationTime(10)
+                .cipherSuite(CipherSuite.AES_CBC).build();
+        for (int i = 0; i < ENTRIES; i++) {
+            cbc.putInt(key(i), i);
+        }
+        // a migration that was killed after writing the batch up to k149, the checkpoint is
+        // written like the migration does as it is no key of the user
+        StorageBackend.Batch batch = storage.edit();
+        cbc.write(batch, AesStore.MIGRATION_KEY, key(149), Operation.MIGRATE);
+        batch.commit();
+
+        AesStore gcm = new AesStore.Builder(storage).password("pw")
+                .cipherSuite(CipherSuite.AES_GCM).build();
+        AesMigration migration = gcm.startMigration();
+        migration.await();
+
+        assertEquals(ENTRIES - 150, migration.getProcessed());
+        assertEquals(ENTRIES - 150, migration.getMigrated());
+        assertEquals(0, migration.getRemaining());
+        assertFalse(storage.contains(AesStore.MIGRATION_KEY));
+        for (int i = 0; i < ENTRIES; i++) {
+            assertEquals(i < 150 ? CipherSuite.AES_CBC : CipherSuite.AES_GCM, suite(storage, key(i)));
+            assertEquals(Integer.valueOf(i), gcm.getInt(key(i), null));
+        }
+    }
+
+    @Test
+    public void migratesEveryKindOfEntry() throws Exception {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore cbc = new AesStore.Builder(storage).password("pw").keyDerivationTime(10)
+                .cipherSuite(CipherSuite.AES_CBC).build();
+        cbc.put("string", "value");
+        cbc.putBool("bool", true);
+        cbc.storeArray("names", Arrays.asList("a", "b"));
+
+        AesStore gcm = new AesStore.Builder(storage).password("pw")
+                .cipherSuite(CipherSuite.AES_GCM).build();
+        gcm.put("new", "already gcm");
+        AesMigration migration = gcm.startMigration();
+        migration.await();
+
+        assertEquals(0, migration.getRemaining());
+        assertEquals(CipherSuite.AES_GCM, suite(storage, "string"));
+        assertEquals(CipherSuite.AES_GCM, suite(storage, ChunkedList.headerKey("names")));
+        AesStore reopened = new AesStore.Builder(storage).password("pw").build();
+        assertEquals("value", reopened.get("string", null));
+        assertEquals(Boolean.TRUE, reopened.getBool("bool", null));
+        assertEquals(Arrays.asList("a", "b"), reopened.restoreArray("names"));
+        assertEquals("already gcm", reopened.get("new", null));
+    }
+
+    private static String key(int i) {
+        return String.format("k%03d", i);
+    }
+
+    private static CipherSuite suite(MemoryBackend storage, String key) {
+        return Record.decode(Base64.decode(storage.read(key), Base64.DEFAULT)).getSuite();
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.util.Base64;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link AesStore} on a {@link MemoryBackend}: values of old versions, password changes,
+ * the atomic operations and the lists.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class AesStoreTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void readsLegacyValues() throws Exception {
+        MemoryBackend storage = new MemoryBackend();
+        SecretKey key = legacyKey(storage, "pw");
+        Crypt.CryptSet twoEntries = Crypt.enc(key, "two entries");
+        storage.edit()
+                .put("v0", Base64.encodeToString(twoEntries.getEncrypted(), Base64.DEFAULT))
+                .put("v0=", Base64.encodeToString(twoEntries.getIv(), Base64.DEFAULT))
+                .put("v1", encode(new Record(Record.VERSION_1, Crypt.enc(key, "version 1"))))
+                .put("v2", encode(new Record(Record.VERSION_2, Crypt.enc(key, ValueCodec.encode(42)))))
+                .commit();
+
+        AesStore store = new AesStore.Builder(storage).password("pw").build();
+        assertEquals("two entries", store.get("v0", null));
+        assertEquals("version 1", store.get("v1", null));
+        assertEquals(Integer.valueOf(42), store.getInt("v2", null));
+        // the derived key is wrapped as the data key on the first open
+        assertTrue(storage.contains(AesStore.DATA_KEY_KEY + ".1"));
+
+        store = new AesStore.Builder(storage).password("pw").build();
+        assertEquals(Integer.valueOf(42), store.getInt("v2", null));
+        store.put("v1", "written again");
+        assertEquals("written again", new AesStore.Builder(storage).password("pw").build().get("v1", null));
+    }
+
+    @Test
+    public void changePassword() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("old").keyDerivationTime(10).build();
+        store.put("value", "secret");
+
+        assertTrue(store.changePassword("new"));
+        assertEquals("secret", store.get("value", null));
+        assertEquals("secret", open(storage, "new"));
+        assertWrongPassword(storage, "old");
+        assertEquals("2", storage.read(AesStore.KEY_SLOT_KEY));
+        assertFalse(storage.contains(AesStore.SALT_KEY + ".1"));
+        assertFalse(storage.contains(AesStore.DATA_KEY_KEY + ".1"));
+    }
+
+    @Test
+    public void changePasswordInterruptedBeforeSwitch() {
+        MemoryBackend storage = new MemoryBackend();
+        new AesStore.Builder(storage).password("old").keyDerivationTime(10).build().put("value", "secret");
+        // the next slot was written, the pointer wasn't
+        storage.edit()
+                .put(AesStore.SALT_KEY + ".2", "AAAA")
+                .put(AesStore.ITERATIONS_KEY + ".2", "1000")
+                .put(AesStore.DATA_KEY_KEY + ".2", "AAAA")
+                .commit();
+
+        assertEquals("secret", open(storage, "old"));
+        assertTrue(new AesStore.Builder(storage).password("old").build().changePassword("new"));
+        assertEquals("secret", open(storage, "new"));
+    }
+
+    @Test
+    public void changePasswordOfStoreWithoutSlot() {
+        MemoryBackend storage = new MemoryBackend();
+        new AesStore.Builder(storage).password("old").keyDerivationTime(10).build().put("value", "secret");
+        // stores of older versions keep the key material under the plain names
+        storage.edit()
+                .put(AesStore.SALT_KEY, storage.read(AesStore.SALT_KEY + ".1"))
+                .put(AesStore.ITERATIONS_KEY, storage.read(AesStore.ITERATIONS_KEY + ".1"))
+                .put(AesStore.DATA_KEY_KEY, storage.read(AesStore.DATA_KEY_KEY + ".1"))
+                .remove(AesStore.SALT_KEY + ".1")
+                .remove(AesStore.ITERATIONS_KEY + ".1")
+                .remove(AesStore.DATA_KEY_KEY + ".1")
+                .remove(AesStore.KEY_SLOT_KEY)
+                .commit();
+        assertEquals("secret", open(storage, "old"));
+
+        assertTrue(new AesStore.Builder(storage).password("old").build().changePassword("new"));
+        assertEquals("secret", open(storage, "new"));
+        assertWrongPassword(storage, "old");
+        assertFalse(storage.contains(AesStore.SALT_KEY));
+        assertFalse(storage.contains(AesStore.DATA_KEY_KEY));
+    }
+
+    @Test
+    public void putIfAbsentUnderContention() throws Exception {
+        final AesStore store = new AesStore.Builder(new MemoryBackend()).password("pw").build();
+        List<Boolean> results = runConcurrently(new Task() {
+            @Override
+            public boolean run(int thread) {
+                return store.putIfAbsent("owner", thread);
+            }
+        });
+        int winner = results.indexOf(true);
+        assertEquals(winner, results.lastIndexOf(true));
+        assertEquals(Integer.valueOf(winner), store.getInt("owner", null));
+    }
+
+    @Test
+    public void compareAndSetUnderContention() throws Exception {
+        final AesStore store = new AesStore.Builder(new MemoryBackend()).password("pw").build();
+        final int increments = 200;
+        store.putInt("counter", 0);
+        runConcurrently(new Task() {
+            @Override
+            public boolean run(int thread) {
+                for (int i = 0; i < increments; i++) {
+                    int current;
+                    do {
+                        current = store.getInt("counter", null);
+                    } while (!store.compareAndSet("counter", current, current + 1));
+                }
+                return true;
+            }
+        });
+        assertEquals(Integer.valueOf(THREADS * increments), store.getInt("counter", null));
+    }
+
+    @Test
+    public void restoreArraySeesWholeWrites() throws Exception {
+        final AesStore store = new AesStore.Builder(new MemoryBackend()).password("pw").keyDerivationTime(10).build();
+        final List<String> small = values("s", 3);
+        final List<String> large = values("l", 3 * ChunkedList.CHUNK_CAPACITY + 1);
+        store.storeArray("names", small);
+        List<Boolean> results = runConcurrently(new Task() {
+            @Override
+            public boolean run(int thread) {
+                boolean consistent = true;
+                for (int i = 0; i < 100; i++) {
+                    if (thread == 0) {
+                        store.storeArray("names", i % 2 == 0 ? large : small);
+                        store.appendToArray("names", "x");
+                        store.removeFromArray("names", 0);
+                    } else {
+                        List<String> read = store.restoreArray("names");
+                        consistent &= read.equals(small) || read.equals(large)
+                                || read.equals(append(small, "x")) || read.equals(append(large, "x"))
+                                || read.equals(append(small, "x").subList(1, small.size() + 1))
+                                || read.equals(append(large, "x").subList(1, large.size() + 1));
+                    }
+                }
+                return consistent;
+            }
+        });
+        assertEquals(Collections.nCopies(THREADS, true), results);
+        assertEquals(0, store.getMetrics().getErrorCount(AesMetrics.Operation.ARRAY));
+    }
+
+    @Test
+    public void appendToEmptyLegacyListRemovesItsSize() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10).build();
+        store.putInt("names_size", 0);
+
+        store.appendToArray("names", "a");
+        assertFalse(storage.contains("names_size"));
+        assertEquals(Collections.singletonList("a"), store.restoreArray("names"));
+    }
+
+    @Test
+    public void storeArrayRemovesLeftoverLegacyEntries() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10).build();
+        store.storeArray("names", Arrays.asList("a", "b"));
+        // entries of the old format next to the chunked list
+        store.putInt("names_size", 2);
+        store.put("names_0", "old");
+        store.put("names_1", "old");
+
+        store.storeArray("names", Collections.singletonList("c"));
+        assertFalse(storage.contains("names_size"));
+        assertFalse(storage.contains("names_0"));
+        assertFalse(storage.contains("names_1"));
+        assertEquals(Collections.singletonList("c"), store.restoreArray("names"));
+    }
+
+    /**
+     * Creates a store whose values are encrypted with the key derived from the password, like
+     * the versions before the wrapped data key.
+     */
+    private static SecretKey legacyKey(MemoryBackend storage, String password) {
+        new AesStore.Builder(storage).password(password).keyDerivationTime(10).build();
+        storage.edit().remove(AesStore.DATA_KEY_KEY + ".1").commit();
+        byte[] salt = Base64.decode(storage.read(AesStore.SALT_KEY + ".1"), Base64.DEFAULT);
+        int iterations = Integer.parseInt(storage.read(AesStore.ITERATIONS_KEY + ".1"));
+        return Crypt.getSecretKey(password, salt, iterations).getSecretKey();
+    }
+
+    private static String encode(Record record) {
+        return Base64.encodeToString(record.encode(), Base64.NO_WRAP);
+    }
+
+    private static String open(MemoryBackend storage, String password) {
+        return new AesStore.Builder(storage).password(password).build().get("value", null);
+    }
+
+    private static void assertWrongPassword(MemoryBackend storage, String password) {
+        try {
+            open(storage, password);
+            fail("Opened with " + password);
+        } catch (IllegalStateException expected) {
+            // the wrapped key doesn't match
+        }
+    }
+
+    private static List<String> values(String prefix, int count) {
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(prefix + i);
+        }
+        return values;
+    }
+
+    private static List<String> append(List<String> values, String value) {
+        List<String> appended = new ArrayList<>(values);
+        appended.add(value);
+        return appended;
+    }
+
+    private interface Task {
+        boolean run(int thread);
+    }
+
+    /**
+     * Runs the task on {@link #THREADS} threads that start at the same time.
+     *
+     * @return the results, by thread
+     */
+    private static List<Boolean> runConcurrently(final Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        start.await();
+                        return task.run(thread);
+                    }
+                }));
+            }
+            start.countDown();
+            List<Boolean> results = new ArrayList<>();
+            for (Future<Boolean> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
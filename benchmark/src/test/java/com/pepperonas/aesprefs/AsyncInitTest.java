@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link AesStore.Builder#buildAsync(AesPrefs.InitCallback)} and the reads and writes that
+ * wait for it.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class AsyncInitTest {
+
+    @Test
+    public void callsMadeBeforeReadyWait() throws Exception {
+        MemoryBackend storage = new MemoryBackend();
+        new AesStore.Builder(storage).password("pw").build().put("a", "1");
+
+        final CountDownLatch initialized = new CountDownLatch(1);
+        AesStore store = new AesStore.Builder(storage).password("pw").buildAsync(new AesPrefs.InitCallback() {
+            @Override
+            public void onInitialized() {
+                initialized.countDown();
+            }
+        });
+        // read and written before the key is derived
+        assertEquals("1", store.get("a", null));
+        store.put("b", "2");
+        assertTrue(store.isReady());
+        assertNull(store.getInitFuture().get());
+        assertTrue(initialized.await(5, TimeUnit.SECONDS));
+        assertEquals("2", new AesStore.Builder(storage).password("pw").build().get("b", null));
+    }
+
+    @Test
+    public void failedInitIsReported() throws InterruptedException {
+        MemoryBackend storage = new MemoryBackend();
+        new AesStore.Builder(storage).password("pw").build().put("a", "1");
+
+        AesStore store = new AesStore.Builder(storage).password("wrong").buildAsync(null);
+        try {
+            store.getInitFuture().get();
+            fail("Opened with a wrong password");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(store.isReady());
+        try {
+            store.get("a", null);
+            fail("Read from a store whose init failed");
+        } catch (IllegalStateException expected) {
+            // the cause is the failure of the init
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the encrypted blobs of {@link AesStore}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class BlobTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        AesStore store = store();
+        assertNull(store.openBlobInput("doc"));
+        for (int size : new int[]{0, 1, BlobOutputStream.FRAME_SIZE, 3 * BlobOutputStream.FRAME_SIZE + 17}) {
+            byte[] data = random(size);
+            write(store, "doc", data);
+            assertTrue(store.hasBlob("doc"));
+            assertArrayEquals("size " + size, data, read(store, "doc"));
+        }
+        assertTrue(store.removeBlob("doc"));
+        assertFalse(store.hasBlob("doc"));
+    }
+
+    @Test
+    public void truncatedBlobFailsToRead() throws IOException {
+        AesStore store = store();
+        write(store, "doc", random(2 * BlobOutputStream.FRAME_SIZE + 5));
+        File file = blobFile();
+        long length = file.length();
+
+        // cut off the last frame, then a part of the first one
+        truncate(file, length - 100);
+        assertUnreadable(store, "doc");
+        truncate(file, 100);
+        assertUnreadable(store, "doc");
+    }
+
+    @Test
+    public void blobOfAnotherKeyFailsToRead() throws IOException {
+        AesStore store = store();
+        write(store, "a", random(10));
+        File a = blobFile();
+        write(store, "b", random(10));
+        for (File file : mFolder.getRoot().listFiles()) {
+            if (!file.equals(a)) {
+                assertTrue(a.renameTo(file));
+            }
+        }
+        assertUnreadable(store, "b");
+    }
+
+    @Test
+    public void unclosedStreamKeepsTheOldBlob() throws IOException {
+        AesStore store = store();
+        byte[] data = random(100);
+        write(store, "doc", data);
+        OutputStream out = store.openBlobOutput("doc");
+        out.write(random(BlobOutputStream.FRAME_SIZE + 1));
+        assertArrayEquals(data, read(store, "doc"));
+        out.close();
+    }
+
+    @Test
+    public void staleTemporaryFilesAreSweptOnOpen() throws IOException {
+        File stale = mFolder.newFile("abc.tmp");
+        assertTrue(stale.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000));
+        File fresh = mFolder.newFile("def.tmp");
+        File other = mFolder.newFile("old");
+        assertTrue(other.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000));
+
+        store();
+        assertFalse(stale.exists());
+        assertTrue(fresh.exists());
+        assertTrue(other.exists());
+    }
+
+    private AesStore store() {
+        return new AesStore.Builder(new MemoryBackend()).password("pw").keyDerivationTime(10)
+                .blobDirectory(mFolder.getRoot()).build();
+    }
+
+    private File blobFile() {
+        File[] files = mFolder.getRoot().listFiles();
+        File newest = null;
+        for (File file : files) {
+            if (newest == null || file.lastModified() >= newest.lastModified()) {
+                newest = file;
+            }
+        }
+        return newest;
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static void write(AesStore store, String key, byte[] data) throws IOException {
+        OutputStream out = store.openBlobOutput(key);
+        try {
+            // not aligned to the frames
+            for (int off = 0; off < data.length; off += 1000) {
+                out.write(data, off, Math.min(1000, data.length - off));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(AesStore store, String key) throws IOException {
+        InputStream in = store.openBlobInput(key);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[777];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertUnreadable(AesStore store, String key) {
+        try {
+            read(store, key);
+            fail("Read a broken blob");
+        } catch (IOException expected) {
+            // detected
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+}
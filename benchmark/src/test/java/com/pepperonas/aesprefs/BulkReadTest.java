@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the bulk reads {@link AesStore#getAll()} and {@link AesStore#getMany}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class BulkReadTest {
+
+    @Test
+    public void getAllLeavesOutInternalEntries() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10).build();
+        for (int i = 0; i < 100; i++) {
+            store.put("key" + i, "value" + i);
+        }
+        store.putInt("int", 7);
+        assertTrue(store.putIfAbsent("raw", new byte[]{1, 2, 3}));
+        store.storeArray("names", Arrays.asList("a", "b"));
+
+        BulkResult result = store.getAll();
+        Map<String, Object> values = result.getValues();
+        assertFalse(result.hasErrors());
+        assertEquals(102, values.size());
+        assertEquals("value42", values.get("key42"));
+        assertEquals(7, values.get("int"));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) values.get("raw"));
+        for (String key : values.keySet()) {
+            assertFalse(key, ChunkedList.isListEntry(key));
+        }
+    }
+
+    @Test
+    public void getManyReturnsOnlyStoredValues() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10).build();
+        store.put("a", "1");
+        assertTrue(store.putIfAbsent("raw", new byte[]{4}));
+        store.storeArray("names", Collections.singletonList("x"));
+
+        BulkResult result = store.getMany(Arrays.asList("a", "raw", "missing", AesStore.SALT_KEY,
+                ChunkedList.headerKey("names"), ChunkedList.chunkKey("names", 0)));
+        assertFalse(result.hasErrors());
+        assertEquals(2, result.getValues().size());
+        assertEquals("1", result.getValues().get("a"));
+        assertArrayEquals(new byte[]{4}, (byte[]) result.getValues().get("raw"));
+    }
+
+    @Test
+    public void corruptedEntriesAreReportedPerKey() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10).build();
+        store.put("a", "1");
+        store.put("b", "2");
+        assertTrue(storage.edit().put("b", "AAAA").commit());
+
+        BulkResult result = store.getMany(Arrays.asList("a", "b"));
+        assertEquals(Collections.<String, Object>singletonMap("a", "1"), result.getValues());
+        assertEquals(Collections.singleton("b"), result.getErrors().keySet());
+    }
+
+}
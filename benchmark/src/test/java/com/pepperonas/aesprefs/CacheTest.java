@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the cache of decrypted values of {@link AesStore}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class CacheTest {
+
+    private MemoryBackend mStorage;
+
+    private AesStore mStore;
+
+    @Before
+    public void setUp() {
+        mStorage = new MemoryBackend();
+        mStore = new AesStore.Builder(mStorage).password("pw").cacheSize(2).build();
+    }
+
+    @Test
+    public void repeatedReadIsHit() {
+        mStore.put("a", "1");
+        assertEquals("1", mStore.get("a", null));
+        assertEquals("1", mStore.get("a", null));
+        assertEquals(2, mStore.getCacheHits());
+        assertEquals(0, mStore.getCacheMisses());
+
+        AesStore reopened = new AesStore.Builder(mStorage).password("pw").cacheSize(2).build();
+        assertEquals("1", reopened.get("a", null));
+        assertEquals("1", reopened.get("a", null));
+        assertEquals(1, reopened.getCacheMisses());
+        assertEquals(1, reopened.getCacheHits());
+    }
+
+    @Test
+    public void writesReplaceCachedValue() {
+        mStore.put("a", "1");
+        assertEquals("1", mStore.get("a", null));
+        mStore.put("a", "2");
+        assertEquals("2", mStore.get("a", null));
+        mStore.edit().put("a", "3").commit();
+        assertEquals("3", mStore.get("a", null));
+        mStore.edit().remove("a").commit();
+        assertNull(mStore.get("a", null));
+        mStore.put("a", null);
+        assertNull(mStore.get("a", "default"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        mStore.put("a", "1");
+        mStore.put("b", "2");
+        mStore.put("c", "3");
+        int misses = mStore.getCacheMisses();
+        assertEquals("3", mStore.get("c", null));
+        assertEquals("2", mStore.get("b", null));
+        assertEquals(misses, mStore.getCacheMisses());
+        assertEquals("1", mStore.get("a", null));
+        assertEquals(misses + 1, mStore.getCacheMisses());
+    }
+
+    @Test
+    public void disabledCacheDecryptsEveryRead() {
+        mStore.put("a", "1");
+        mStore.disableCache();
+        assertEquals("1", mStore.get("a", null));
+        assertEquals(0, mStore.getCacheHits());
+        mStore.enableCache(4);
+        assertEquals("1", mStore.get("a", null));
+        assertEquals("1", mStore.get("a", null));
+        assertEquals(1, mStore.getCacheHits());
+    }
+
+}
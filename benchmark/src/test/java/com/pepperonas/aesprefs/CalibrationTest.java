@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the calibrated key derivation and its stored iteration count.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class CalibrationTest {
+
+    @Test
+    public void calibrationIsClampedAndRounded() {
+        assertEquals(Crypt.MIN_ITERATION_COUNT, Crypt.calibrateIterationCount(0));
+        assertEquals(Crypt.MAX_ITERATION_COUNT, Crypt.calibrateIterationCount(1000000));
+        int fast = Crypt.calibrateIterationCount(20);
+        int slow = Crypt.calibrateIterationCount(2000);
+        assertEquals(0, fast % 1000);
+        assertEquals(0, slow % 1000);
+        assertTrue(fast + " < " + slow, fast < slow);
+    }
+
+    @Test
+    public void iterationCountIsStoredWithTheSalt() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10).build();
+        store.put("a", "1");
+        int iterations = store.getIterations();
+        assertTrue(iterations >= Crypt.MIN_ITERATION_COUNT);
+        assertEquals(String.valueOf(iterations), storage.read(AesStore.ITERATIONS_KEY + ".1"));
+
+        // a later launch derives with the stored count instead of calibrating again
+        AesStore reopened = new AesStore.Builder(storage).password("pw").keyDerivationTime(5000).build();
+        assertEquals(iterations, reopened.getIterations());
+        assertEquals("1", reopened.get("a", null));
+    }
+
+    @Test
+    public void storesWithoutCountUseTheFixedOne() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").build();
+        assertEquals(Crypt.DERIVATION_ITERATION_COUNT, store.getIterations());
+        store.put("a", "1");
+        // written before the count was stored
+        assertTrue(storage.edit().remove(AesStore.ITERATIONS_KEY + ".1").commit());
+
+        AesStore reopened = new AesStore.Builder(storage).password("pw").keyDerivationTime(10).build();
+        assertEquals(Crypt.DERIVATION_ITERATION_COUNT, reopened.getIterations());
+        assertEquals("1", reopened.get("a", null));
+    }
+
+}
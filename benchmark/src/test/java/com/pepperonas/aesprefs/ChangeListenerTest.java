@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the coalescing of the changes reported to a {@link ChangeListener}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class ChangeListenerTest {
+
+    private static final long WINDOW = 300;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void changesWithinTheWindowAreReportedOnce() throws Exception {
+        AesStore store = store(WINDOW);
+        Recorder recorder = new Recorder();
+        store.addChangeListener(recorder, DIRECT);
+
+        store.put("a", "1");
+        store.put("a", "2");
+        store.putInt("b", 1);
+        store.put("a", "3");
+
+        Map<String, AesChange> changes = recorder.next();
+        assertEquals(2, changes.size());
+        assertEquals("3", changes.get("a").getValue());
+        assertEquals(1, changes.get("b").getValue());
+        assertNull(recorder.poll(WINDOW));
+    }
+
+    @Test
+    public void changesAfterTheDispatchAreReportedAgain() throws Exception {
+        AesStore store = store(0);
+        Recorder recorder = new Recorder();
+        store.addChangeListener(recorder, DIRECT);
+
+        store.put("a", "1");
+        assertEquals("1", recorder.next().get("a").getValue());
+        store.put("a", "2");
+        assertEquals("2", recorder.next().get("a").getValue());
+        store.edit().remove("a").commit();
+        Map<String, AesChange> removed = recorder.next();
+        assertTrue(removed.containsKey("a"));
+        assertNull(removed.get("a").getValue());
+    }
+
+    @Test
+    public void editorAndListsAreReportedByLogicalKey() throws Exception {
+        AesStore store = store(WINDOW);
+        Recorder recorder = new Recorder();
+        store.addChangeListener(recorder, DIRECT);
+
+        store.edit().put("x", "1").putLong("y", 2L).commit();
+        store.storeArray("names", Arrays.asList("a", "b"));
+        store.appendToArray("names", "c");
+
+        Map<String, AesChange> changes = recorder.next();
+        assertEquals(3, changes.size());
+        assertFalse(changes.get("x").isArray());
+        assertEquals(2L, changes.get("y").getValue());
+        assertTrue(changes.get("names").isArray());
+        assertEquals(Arrays.asList("a", "b", "c"), changes.get("names").getValue());
+    }
+
+    @Test
+    public void valuesAreDecryptedLazilyOnceForAllListeners() throws Exception {
+        AesStore store = new AesStore.Builder(new MemoryBackend()).password("pw").keyDerivationTime(10)
+                .cacheSize(0).changeWindow(0).build();
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        store.addChangeListener(first, DIRECT);
+        // the main thread stand-in runs posted tasks at once
+        store.addChangeListener(second);
+        LatencyHistogram decrypt = store.getMetrics().getHistogram(AesMetrics.Operation.GET, AesMetrics.Stage.DECRYPT);
+
+        store.put("a", "secret");
+        AesChange change = first.next().get("a");
+        assertSame(change, second.next().get("a"));
+        assertEquals(0, decrypt.getCount());
+
+        Object value = change.getValue();
+        assertEquals("secret", value);
+        assertSame(value, change.getValue());
+        assertEquals(1, decrypt.getCount());
+    }
+
+    @Test
+    public void removedListenerIsNotCalled() throws Exception {
+        AesStore store = store(0);
+        Recorder removed = new Recorder();
+        Recorder kept = new Recorder();
+        store.addChangeListener(removed, DIRECT);
+        store.addChangeListener(kept, DIRECT);
+        store.removeChangeListener(removed);
+
+        store.put("a", "1");
+        assertNotNull(kept.next().get("a"));
+        assertNull(removed.poll(WINDOW));
+    }
+
+    private static AesStore store(long window) {
+        return new AesStore.Builder(new MemoryBackend()).password("pw").keyDerivationTime(10)
+                .changeWindow(window).build();
+    }
+
+    /**
+     * Queues the changes of each call, by key.
+     */
+    private static class Recorder implements ChangeListener {
+
+        private final BlockingQueue<Map<String, AesChange>> mCalls = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onChanged(@NonNull List<AesChange> changes) {
+            Map<String, AesChange> byKey = new HashMap<>();
+            for (AesChange change : changes) {
+                assertNull("reported twice: " + change.getKey(), byKey.put(change.getKey(), change));
+            }
+            mCalls.add(byKey);
+        }
+
+        Map<String, AesChange> next() throws InterruptedException {
+            Map<String, AesChange> changes = poll(10 * WINDOW);
+            assertNotNull("no changes reported", changes);
+            return changes;
+        }
+
+        Map<String, AesChange> poll(long timeoutMillis) throws InterruptedException {
+            return mCalls.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
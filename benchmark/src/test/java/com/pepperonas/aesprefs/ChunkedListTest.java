@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the header and chunk layout of {@link ChunkedList} and the arrays stored with it.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class ChunkedListTest {
+
+    @Test
+    public void headerRoundTrip() {
+        ChunkedList list = new ChunkedList();
+        list.addChunk(ChunkedList.CHUNK_CAPACITY);
+        list.addChunk(3);
+        list.ids.remove(0);
+        list.counts.remove(0);
+        list.addChunk(1);
+
+        ChunkedList decoded = ChunkedList.decodeHeader(list.encodeHeader());
+        assertEquals(3, decoded.nextId);
+        assertEquals(Arrays.asList(1, 2), decoded.ids);
+        assertEquals(Arrays.asList(3, 1), decoded.counts);
+        assertEquals(4, decoded.size());
+    }
+
+    @Test
+    public void chunkRoundTrip() {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < ChunkedList.CHUNK_CAPACITY; i++) {
+            values.add(i % 7 == 0 ? null : "value \u00fc" + i);
+        }
+        values.add("");
+        assertEquals(values, ChunkedList.decodeChunk(ChunkedList.encodeChunk(values, 0, values.size())));
+        assertEquals(values.subList(3, 10), ChunkedList.decodeChunk(ChunkedList.encodeChunk(values, 3, 10)));
+        assertEquals(0, ChunkedList.decodeChunk(ChunkedList.encodeChunk(values, 5, 5)).size());
+    }
+
+    @Test
+    public void listEntries() {
+        assertTrue(ChunkedList.isListEntry(ChunkedList.headerKey("names")));
+        assertTrue(ChunkedList.isListEntry(ChunkedList.chunkKey("names", 12)));
+        assertFalse(ChunkedList.isListEntry("names"));
+        assertFalse(ChunkedList.isListEntry("names_chunk"));
+        assertFalse(ChunkedList.isListEntry("names_chunky"));
+    }
+
+    @Test
+    public void neighboursAreMergedWhenTheyFit() {
+        ChunkedList list = new ChunkedList();
+        list.addChunk(ChunkedList.CHUNK_CAPACITY);
+        list.addChunk(20);
+        list.addChunk(40);
+        assertEquals(-1, list.mergeableNeighbour(0));
+        assertEquals(2, list.mergeableNeighbour(1));
+        assertEquals(1, list.mergeableNeighbour(2));
+
+        assertEquals(2, list.mergeWithNext(1));
+        assertEquals(Arrays.asList(0, 1), list.ids);
+        assertEquals(Arrays.asList(ChunkedList.CHUNK_CAPACITY, 60), list.counts);
+        assertEquals(ChunkedList.CHUNK_CAPACITY + 60, list.size());
+    }
+
+    @Test
+    public void corruptedHeaderIsRejected() {
+        ChunkedList list = new ChunkedList();
+        list.addChunk(3);
+        byte[] header = list.encodeHeader();
+
+        assertCorruptedHeader(new byte[4]);
+        assertCorruptedHeader(Arrays.copyOf(header, header.length - 1));
+        byte[] chunks = header.clone();
+        ValueCodec.putInt(chunks, 4, Integer.MAX_VALUE);
+        assertCorruptedHeader(chunks);
+        byte[] id = header.clone();
+        ValueCodec.putInt(id, 8, 7);
+        assertCorruptedHeader(id);
+        byte[] count = header.clone();
+        ValueCodec.putInt(count, 12, ChunkedList.CHUNK_CAPACITY + 1);
+        assertCorruptedHeader(count);
+    }
+
+    @Test
+    public void corruptedChunkIsRejected() {
+        byte[] chunk = ChunkedList.encodeChunk(Arrays.asList("abc", "de"), 0, 2);
+
+        assertCorruptedChunk(Arrays.copyOf(chunk, chunk.length - 1));
+        assertCorruptedChunk(Arrays.copyOf(chunk, chunk.length + 2));
+        byte[] length = chunk.clone();
+        ValueCodec.putInt(length, 0, -5);
+        assertCorruptedChunk(length);
+        ValueCodec.putInt(length, 0, Integer.MAX_VALUE);
+        assertCorruptedChunk(length);
+    }
+
+    @Test
+    public void removalsMergeChunks() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10).build();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 3 * ChunkedList.CHUNK_CAPACITY; i++) {
+            expected.add("v" + i);
+        }
+        store.storeArray("names", expected);
+        assertEquals(3, countChunks(storage, "names"));
+
+        // the first chunk shrinks to 24, then the second one is merged into it
+        for (int i = 0; i < 40; i++) {
+            assertEquals(expected.remove(0), store.removeFromArray("names", 0));
+        }
+        assertEquals(3, countChunks(storage, "names"));
+        for (int i = 0; i < 24; i++) {
+            assertEquals(expected.remove(24), store.removeFromArray("names", 24));
+        }
+        assertEquals(2, countChunks(storage, "names"));
+        assertEquals(expected, store.restoreArray("names"));
+
+        // the last element of the first chunk goes, and the third chunk no longer fits
+        assertEquals(expected.remove(63), store.removeFromArray("names", 63));
+        assertEquals(2, countChunks(storage, "names"));
+        assertEquals(expected, store.restoreArray("names"));
+        assertEquals(expected, new AesStore.Builder(storage).password("pw").build().restoreArray("names"));
+    }
+
+    private static int countChunks(MemoryBackend storage, String key) {
+        int chunks = 0;
+        for (String stored : storage.keys()) {
+            if (stored.startsWith(key + "_chunk")) {
+                chunks++;
+            }
+        }
+        return chunks;
+    }
+
+    private static void assertCorruptedHeader(byte[] header) {
+        try {
+            ChunkedList.decodeHeader(header);
+            fail("Accepted a corrupted header");
+        } catch (IllegalArgumentException expected) {
+            // rejected
+        }
+    }
+
+    private static void assertCorruptedChunk(byte[] chunk) {
+        try {
+            ChunkedList.decodeChunk(chunk);
+            fail("Accepted a corrupted chunk");
+        } catch (IllegalArgumentException expected) {
+            // rejected
+        }
+    }
+
+}
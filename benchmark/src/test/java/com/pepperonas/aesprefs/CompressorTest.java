@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.util.Base64;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link Compressor} and the compression of the values of {@link AesStore}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class CompressorTest {
+
+    @Test
+    public void roundTrip() {
+        byte[] plain = json(200);
+        byte[] compressed = Compressor.deflate(plain);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < plain.length);
+        assertArrayEquals(plain, Compressor.inflate(compressed, compressed.length));
+
+        // the decrypted bytes are followed by the rest of a reused buffer
+        byte[] padded = Arrays.copyOf(compressed, compressed.length + 64);
+        Arrays.fill(padded, compressed.length, padded.length, (byte) 0x5a);
+        assertArrayEquals(plain, Compressor.inflate(padded, compressed.length));
+    }
+
+    @Test
+    public void incompressibleBytesAreNotDeflated() {
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        assertNull(Compressor.deflate(random));
+        assertNull(Compressor.deflate(new byte[0]));
+        assertNull(Compressor.deflate(new byte[]{1, 1, 1}));
+    }
+
+    @Test
+    public void corruptedBytesAreRejected() {
+        byte[] compressed = Compressor.deflate(json(50));
+        assertNotNull(compressed);
+        int plainLength = ValueCodec.getInt(compressed, 0);
+
+        assertCorrupted(compressed, 3);
+        assertCorrupted(compressed, compressed.length - 1);
+        assertCorrupted(withPlainLength(compressed, -1), compressed.length);
+        assertCorrupted(withPlainLength(compressed, plainLength + 1), compressed.length);
+        assertCorrupted(withPlainLength(compressed, plainLength - 1), compressed.length);
+        // larger than any deflate stream of this size, not allocated
+        assertCorrupted(withPlainLength(compressed, (compressed.length - 4) * Compressor.MAX_RATIO + 1), compressed.length);
+        byte[] garbage = compressed.clone();
+        Arrays.fill(garbage, 4, garbage.length, (byte) 0xff);
+        assertCorrupted(garbage, garbage.length);
+    }
+
+    @Test
+    public void valuesFromTheThresholdAreCompressed() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10)
+                .compressionThreshold(256).build();
+        String large = new String(json(100), ValueCodec.UTF_8);
+        String small = new String(json(2), ValueCodec.UTF_8);
+        store.put("large", large);
+        store.put("small", small);
+
+        Record record = stored(storage, "large");
+        assertEquals(Record.FLAG_DEFLATED, record.getFlags());
+        assertTrue(record.getEncrypted().length < large.length());
+        assertEquals(0, stored(storage, "small").getFlags());
+        assertEquals(large, store.get("large", null));
+        assertEquals(small, store.get("small", null));
+
+        // compressed values are read without the threshold
+        store = new AesStore.Builder(storage).password("pw").build();
+        assertEquals(large, store.get("large", null));
+    }
+
+    @Test
+    public void incompressibleValuesAreStoredPlain() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10)
+                .compressionThreshold(16).build();
+        // no repeats, the deflated value would be larger
+        String value = "abcdefghijklmnopqrstuvwxyz0123456789";
+        store.put("unique", value);
+
+        assertEquals(0, stored(storage, "unique").getFlags());
+        assertEquals(value, store.get("unique", null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeThresholdIsRejected() {
+        new AesStore.Builder(new MemoryBackend()).compressionThreshold(-1);
+    }
+
+    private static byte[] json(int entries) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < entries; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"item\"}");
+        }
+        return json.append(']').toString().getBytes(ValueCodec.UTF_8);
+    }
+
+    private static byte[] withPlainLength(byte[] compressed, int plainLength) {
+        byte[] changed = compressed.clone();
+        ValueCodec.putInt(changed, 0, plainLength);
+        return changed;
+    }
+
+    private static void assertCorrupted(byte[] compressed, int length) {
+        try {
+            Compressor.inflate(compressed, length);
+            fail("Inflated " + length + " bytes");
+        } catch (IllegalArgumentException expected) {
+            // rejected
+        }
+    }
+
+    private static Record stored(MemoryBackend storage, String key) {
+        return Record.decode(Base64.decode(storage.read(key), Base64.DEFAULT));
+    }
+}
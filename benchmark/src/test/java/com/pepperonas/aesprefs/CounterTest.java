@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the counters of {@link AesStore#incrementAndGet(String, long)}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class CounterTest {
+
+    private static final int THREADS = 4;
+
+    private static final int INCREMENTS = 2000;
+
+    @Test
+    public void incrementsAreWrittenOnFlush() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10)
+                .counterInterval(60000).build();
+        store.putLong("visits", 10L);
+        String stored = storage.read("visits");
+
+        for (int i = 1; i <= 100; i++) {
+            assertEquals(10 + i, store.incrementAndGet("visits", 1));
+        }
+        assertEquals(stored, storage.read("visits"));
+        assertEquals(Long.valueOf(110), store.getLong("visits", null));
+        assertEquals(110L, store.getAll().getValues().get("visits"));
+
+        store.flush();
+        assertEquals(Long.valueOf(110), new AesStore.Builder(storage).password("pw").build().getLong("visits", null));
+    }
+
+    @Test
+    public void countersAreWrittenAfterTheInterval() throws InterruptedException {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10)
+                .counterInterval(20).build();
+        store.incrementAndGet("a", 2);
+        store.incrementAndGet("b", -3);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!storage.contains("b") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        AesStore reopened = new AesStore.Builder(storage).password("pw").build();
+        assertEquals(Long.valueOf(2), reopened.getLong("a", null));
+        assertEquals(Long.valueOf(-3), reopened.getLong("b", null));
+    }
+
+    @Test
+    public void putAndRemoveReplaceTheCounter() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10)
+                .counterInterval(60000).build();
+        store.incrementAndGet("c", 5);
+        store.putLong("c", 100L);
+        assertEquals(101, store.incrementAndGet("c", 1));
+        store.edit().remove("c").commit();
+        assertNull(store.getLong("c", null));
+        assertEquals(1, store.incrementAndGet("c", 1));
+
+        store.flush();
+        assertEquals(Long.valueOf(1), new AesStore.Builder(storage).password("pw").build().getLong("c", null));
+    }
+
+    @Test
+    public void noIncrementIsLostToAConcurrentPut() throws Exception {
+        final long reset = 1000000;
+        final AesStore store = new AesStore.Builder(new MemoryBackend()).password("pw").keyDerivationTime(10)
+                .counterInterval(1).build();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int afterReset = 0;
+                        for (int i = 0; i < INCREMENTS; i++) {
+                            if (store.incrementAndGet("n", 1) > reset) {
+                                afterReset++;
+                            }
+                        }
+                        return afterReset;
+                    }
+                }));
+            }
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    Thread.sleep(5);
+                    store.putLong("n", reset);
+                    return null;
+                }
+            }).get();
+            long afterReset = 0;
+            for (Future<Integer> future : futures) {
+                afterReset += future.get();
+            }
+            // every increment is either overwritten by the put or counted on top of it
+            assertEquals(Long.valueOf(reset + afterReset), store.getLong("n", null));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
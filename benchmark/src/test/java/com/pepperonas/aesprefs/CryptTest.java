@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link Crypt} with the ciphers it reuses per thread.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class CryptTest {
+
+    private static final byte[] PLAIN = "plain text of some length".getBytes(ValueCodec.UTF_8);
+
+    @Test
+    public void roundTrip() throws GeneralSecurityException {
+        SecretKey key = Crypt.generateKey();
+        for (CipherSuite suite : CipherSuite.values()) {
+            Crypt.CryptSet first = Crypt.enc(suite, key, PLAIN);
+            Crypt.CryptSet second = Crypt.enc(suite, key, PLAIN);
+            assertEquals(suite.getIvLength(), first.getIv().length);
+            assertFalse(suite + " reused the IV", Arrays.equals(first.getIv(), second.getIv()));
+            assertArrayEquals(PLAIN, Crypt.dec(suite, key, first.getIv(), first.getEncrypted()));
+
+            byte[] out = new byte[first.getEncrypted().length];
+            int length = Crypt.dec(suite, key, first.getIv(), first.getEncrypted(), out);
+            assertArrayEquals(PLAIN, Arrays.copyOf(out, length));
+        }
+        Crypt.CryptSet text = Crypt.enc(key, "text \u00fc");
+        assertEquals("text \u00fc", Crypt.dec(key, text.getIv(), text.getEncrypted()));
+    }
+
+    @Test
+    public void reusedCipherTakesEachKey() throws GeneralSecurityException {
+        SecretKey a = Crypt.generateKey();
+        SecretKey b = Crypt.generateKey();
+        Crypt.CryptSet byA = Crypt.enc(CipherSuite.AES_GCM, a, PLAIN);
+        Crypt.CryptSet byB = Crypt.enc(CipherSuite.AES_GCM, b, PLAIN);
+        assertArrayEquals(PLAIN, Crypt.dec(CipherSuite.AES_GCM, a, byA.getIv(), byA.getEncrypted()));
+        assertArrayEquals(PLAIN, Crypt.dec(CipherSuite.AES_GCM, b, byB.getIv(), byB.getEncrypted()));
+        try {
+            Crypt.dec(CipherSuite.AES_GCM, b, byA.getIv(), byA.getEncrypted());
+            fail("Decrypted with another key");
+        } catch (GeneralSecurityException expected) {
+            // the tag doesn't match
+        }
+        // a failed decrypt leaves the cipher of the thread usable
+        assertArrayEquals(PLAIN, Crypt.dec(CipherSuite.AES_GCM, a, byA.getIv(), byA.getEncrypted()));
+    }
+
+    @Test
+    public void threadsDontShareCiphers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final CipherSuite suite = CipherSuite.values()[i % CipherSuite.values().length];
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws GeneralSecurityException {
+                        SecretKey key = Crypt.generateKey();
+                        for (int n = 0; n < 500; n++) {
+                            byte[] plain = ("value " + n).getBytes(ValueCodec.UTF_8);
+                            Crypt.CryptSet cs = Crypt.enc(suite, key, plain);
+                            if (!Arrays.equals(plain, Crypt.dec(suite, key, cs.getIv(), cs.getEncrypted()))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the batches written by {@link AesEditor}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class EditorTest {
+
+    @Test
+    public void commitWritesOneBatch() {
+        TestBackend storage = new TestBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").build();
+        store.put("gone", "x");
+        int batches = storage.mBatches.get();
+
+        assertTrue(store.edit().put("a", "1").putInt("b", 2).putBool("c", true).remove("gone").commit());
+        assertEquals(batches + 1, storage.mBatches.get());
+        assertEquals("1", store.get("a", null));
+        assertEquals(Integer.valueOf(2), store.getInt("b", null));
+        assertEquals(Boolean.TRUE, store.getBool("c", null));
+        assertNull(store.get("gone", null));
+        assertFalse(storage.contains("gone"));
+    }
+
+    @Test
+    public void applyWritesOneBatch() {
+        TestBackend storage = new TestBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").build();
+        int batches = storage.mBatches.get();
+
+        store.edit().putLong("a", 1L).putDouble("b", 2.5).apply();
+        assertEquals(batches + 1, storage.mBatches.get());
+        assertEquals(Long.valueOf(1L), new AesStore.Builder(storage).password("pw").build().getLong("a", null));
+    }
+
+    @Test
+    public void failedCommitIsNotPublished() throws InterruptedException {
+        TestBackend storage = new TestBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").cacheSize(8).changeWindow(0).build();
+        store.put("a", "1");
+        final List<String> changed = new ArrayList<>();
+        store.addChangeListener(new ChangeListener() {
+            @Override
+            public void onChanged(@NonNull List<AesChange> changes) {
+                synchronized (changed) {
+                    for (AesChange change : changes) {
+                        changed.add(change.getKey());
+                    }
+                }
+            }
+        }, new DirectExecutor());
+
+        storage.mFail = true;
+        assertFalse(store.edit().put("a", "2").commit());
+        assertEquals("1", store.get("a", null));
+        Thread.sleep(100);
+        synchronized (changed) {
+            assertTrue(changed.isEmpty());
+        }
+    }
+
+    @Test
+    public void writersAreNotBlockedByEncryption() throws Exception {
+        TestBackend storage = new TestBackend();
+        final AesStore store = new AesStore.Builder(storage).password("pw").build();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // runs while the editor encrypts its values into the batch
+            storage.mOnPut = new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            store.put("a", "other writer");
+                            return null;
+                        }
+                    }).get(5, TimeUnit.SECONDS);
+                    return null;
+                }
+            };
+            assertTrue(store.edit().put("a", "editor").commit());
+            assertEquals("editor", store.get("a", null));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Counts the batches, can fail commits and runs a hook on the first put of a batch.
+     */
+    static class TestBackend extends MemoryBackend {
+
+        final AtomicInteger mBatches = new AtomicInteger();
+
+        volatile boolean mFail;
+
+        volatile Callable<Void> mOnPut;
+
+        @NonNull
+        @Override
+        public Batch edit() {
+            final Batch batch = super.edit();
+            return new Batch() {
+                @NonNull
+                @Override
+                public Batch put(@NonNull String key, @NonNull String value) {
+                    Callable<Void> onPut = mOnPut;
+                    mOnPut = null;
+                    if (onPut != null) {
+                        try {
+                            onPut.call();
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                    batch.put(key, value);
+                    return this;
+                }
+
+                @NonNull
+                @Override
+                public Batch remove(@NonNull String key) {
+                    batch.remove(key);
+                    return this;
+                }
+
+                @Override
+                public void apply() {
+                    commit();
+                }
+
+                @Override
+                public boolean commit() {
+                    if (mFail) {
+                        return false;
+                    }
+                    mBatches.incrementAndGet();
+                    return batch.commit();
+                }
+            };
+        }
+    }
+
+    static class DirectExecutor implements Executor {
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    }
+
+}
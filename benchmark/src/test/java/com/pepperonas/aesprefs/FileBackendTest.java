@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the file format and the writes of {@link FileBackend}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class FileBackendTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void committedValuesSurviveReopening() throws IOException {
+        File file = new File(mFolder.getRoot(), "prefs.bin");
+        FileBackend backend = new FileBackend(file);
+        assertTrue(backend.keys().isEmpty());
+        assertFalse(file.exists());
+
+        assertTrue(backend.edit().put("a", "1").put("b", "\u00fc\u20ac").put("gone", "x").commit());
+        assertTrue(backend.edit().remove("gone").commit());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        FileBackend reopened = new FileBackend(file);
+        assertEquals(2, reopened.readAll().size());
+        assertEquals("1", reopened.read("a"));
+        assertEquals("\u00fc\u20ac", reopened.read("b"));
+        assertNull(reopened.read("gone"));
+    }
+
+    @Test
+    public void appliedValuesAreWrittenByFlush() {
+        File file = new File(mFolder.getRoot(), "prefs.bin");
+        FileBackend backend = new FileBackend(file);
+        for (int i = 0; i < 100; i++) {
+            backend.edit().put("key" + i, "value" + i).apply();
+        }
+        assertEquals("value99", backend.read("key99"));
+        assertTrue(backend.flush());
+
+        assertEquals(100, new FileBackend(file).keys().size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsForeignFiles() throws IOException {
+        File file = new File(mFolder.getRoot(), "prefs.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write("<map></map>".getBytes(ValueCodec.UTF_8));
+        } finally {
+            out.close();
+        }
+        new FileBackend(file).read("a");
+    }
+
+    @Test
+    public void storesEncryptedValues() {
+        File file = new File(mFolder.getRoot(), "prefs.bin");
+        AesStore store = new AesStore.Builder(new FileBackend(file)).password("pw").keyDerivationTime(10).build();
+        store.put("a", "secret");
+        store.putLong("b", 42L);
+        assertTrue(store.flush());
+
+        AesStore reopened = new AesStore.Builder(new FileBackend(file)).password("pw").build();
+        assertEquals("secret", reopened.get("a", null));
+        assertEquals(Long.valueOf(42L), reopened.getLong("b", null));
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link AesStore#importValues(Map)} and the keys the store reserves for itself.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class ImportTest {
+
+    private static final List<String> RESERVED = Arrays.asList(AesStore.SALT_KEY, AesStore.ITERATIONS_KEY,
+            AesStore.DATA_KEY_KEY, AesStore.KEY_SLOT_KEY, AesStore.SALT_KEY + ".1", AesStore.DATA_KEY_KEY + ".12",
+            AesStore.MIGRATION_KEY, AesStore.PREFETCH_KEY, ChunkedList.headerKey("names"),
+            ChunkedList.chunkKey("names", 3));
+
+    @Test
+    public void importKeepsTypes() {
+        AesStore store = store();
+        Map<String, Object> values = new HashMap<>();
+        Set<String> set = new HashSet<>(Arrays.asList("a", "b"));
+        for (int i = 0; i < 50; i++) {
+            values.put("string" + i, "value" + i);
+        }
+        values.put("int", 1);
+        values.put("long", 2L);
+        values.put("float", 3f);
+        values.put("bool", true);
+        values.put("set", set);
+
+        BulkResult result = store.importValues(values);
+        assertFalse(result.hasErrors());
+        assertEquals(values.size(), result.getValues().size());
+        AesStore reopened = new AesStore.Builder(store.storage()).password("pw").build();
+        assertEquals("value7", reopened.get("string7", null));
+        assertEquals(Integer.valueOf(1), reopened.getInt("int", null));
+        assertEquals(Long.valueOf(2), reopened.getLong("long", null));
+        assertEquals(Float.valueOf(3f), reopened.getFloat("float", null));
+        assertEquals(Boolean.TRUE, reopened.getBool("bool", null));
+        assertEquals(set, reopened.getStringSet("set", null));
+    }
+
+    @Test
+    public void importReportsReservedKeysAndUnsupportedTypes() {
+        AesStore store = store();
+        Map<String, Object> values = new HashMap<>();
+        for (String key : RESERVED) {
+            values.put(key, "x");
+        }
+        values.put("object", new Object());
+        values.put("ok", "1");
+        String salt = store.storage().read(AesStore.SALT_KEY + ".1");
+
+        BulkResult result = store.importValues(values);
+        assertEquals(RESERVED.size() + 1, result.getErrors().size());
+        assertTrue(result.getErrors().get(AesStore.SALT_KEY + ".1") instanceof IllegalArgumentException);
+        assertEquals(1, result.getValues().size());
+        assertEquals(salt, store.storage().read(AesStore.SALT_KEY + ".1"));
+        assertEquals("1", store.get("ok", null));
+    }
+
+    @Test
+    public void writesOfReservedKeysAreRejected() {
+        final AesStore store = store();
+        for (final String key : RESERVED) {
+            assertRejected(new Runnable() {
+                @Override
+                public void run() {
+                    store.put(key, "x");
+                }
+            });
+            assertRejected(new Runnable() {
+                @Override
+                public void run() {
+                    store.putIntValue(key, 1);
+                }
+            });
+            assertRejected(new Runnable() {
+                @Override
+                public void run() {
+                    store.putIfAbsent(key, 1);
+                }
+            });
+            assertRejected(new Runnable() {
+                @Override
+                public void run() {
+                    store.compareAndSet(key, null, 1);
+                }
+            });
+            assertRejected(new Runnable() {
+                @Override
+                public void run() {
+                    store.incrementAndGet(key, 1);
+                }
+            });
+            assertRejected(new Runnable() {
+                @Override
+                public void run() {
+                    store.edit().putLong(key, 1L);
+                }
+            });
+            assertRejected(new Runnable() {
+                @Override
+                public void run() {
+                    store.edit().remove(key);
+                }
+            });
+        }
+        // similar keys of values are fine
+        for (String key : Arrays.asList("sr2", "sr.x", "srs.1", "names_listing", "names_chunk")) {
+            store.put(key, "value");
+            assertEquals("value", store.get(key, null));
+            assertTrue(store.edit().remove(key).commit());
+        }
+        // the lists themselves still work
+        store.storeArray("names", Arrays.asList("a", "b"));
+        store.removeFromArray("names", 0);
+        assertEquals(Arrays.asList("b"), store.restoreArray("names"));
+    }
+
+    private static AesStore store() {
+        return new AesStore.Builder(new MemoryBackend()).password("pw").keyDerivationTime(10).build();
+    }
+
+    private static void assertRejected(Runnable write) {
+        try {
+            write.run();
+            fail("Wrote a reserved key");
+        } catch (IllegalArgumentException expected) {
+            // reserved
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests reopening a {@link LogBackend}, also after its tail was cut off by a crash or an entry was
+ * corrupted, and its compaction.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class LogBackendTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * The warnings of the backend, kept out of the test output.
+     */
+    private final ByteArrayOutputStream mLog = new ByteArrayOutputStream();
+
+    private PrintStream mErr;
+
+    @Before
+    public void captureLog() {
+        mErr = System.err;
+        System.setErr(new PrintStream(mLog, true));
+    }
+
+    @After
+    public void restoreLog() {
+        System.setErr(mErr);
+    }
+
+    @Test
+    public void reopenKeepsCommittedBatches() throws IOException {
+        File file = new File(mFolder.getRoot(), "log");
+        LogBackend log = new LogBackend(file);
+        log.edit().put("a", "1").put("b", "2").commit();
+        log.edit().put("a", "3").remove("b").commit();
+        log.close();
+
+        LogBackend reopened = new LogBackend(file);
+        assertEquals(Collections.singletonMap("a", "3"), reopened.readAll());
+        reopened.close();
+    }
+
+    @Test
+    public void reopenDropsTornBatch() throws IOException {
+        File file = new File(mFolder.getRoot(), "log");
+        LogBackend log = new LogBackend(file);
+        log.edit().put("a", "1").commit();
+        int committed = log.getLogSize();
+        log.edit().put("a", "2").put("b", "2").commit();
+        int end = log.getLogSize();
+        log.close();
+
+        for (int cut = committed; cut < end; cut++) {
+            File torn = copy(file, cut);
+            LogBackend reopened = new LogBackend(torn);
+            assertEquals("cut at " + cut, Collections.singletonMap("a", "1"), reopened.readAll());
+            // the torn tail is overwritten by the next batch
+            reopened.edit().put("c", "3").commit();
+            reopened.close();
+
+            reopened = new LogBackend(torn);
+            Map<String, String> expected = new HashMap<>();
+            expected.put("a", "1");
+            expected.put("c", "3");
+            assertEquals("cut at " + cut, expected, reopened.readAll());
+            reopened.close();
+        }
+        assertTrue(log().contains("W/LogBackend: Dropping torn batch at " + committed));
+    }
+
+    @Test
+    public void corruptedEntryBeforeCommittedBatchFailsOpen() throws IOException {
+        File file = new File(mFolder.getRoot(), "log");
+        LogBackend log = new LogBackend(file);
+        log.edit().put("a", "1").commit();
+        int committed = log.getLogSize();
+        log.edit().put("b", "2").put("c", "3").commit();
+        log.edit().put("d", "4").commit();
+        int end = log.getLogSize();
+        log.close();
+
+        File corrupted = copy(file, end);
+        RandomAccessFile out = new RandomAccessFile(corrupted, "rw");
+        try {
+            // the checksum of the first entry of the second batch
+            out.seek(committed + 14);
+            out.write('x');
+        } finally {
+            out.close();
+        }
+        byte[] before = read(corrupted, end);
+
+        try {
+            new LogBackend(corrupted).readAll();
+            fail("Dropped the committed batches behind a corrupted entry");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getCause().getMessage().startsWith("Corrupted entry at " + committed));
+        }
+        assertArrayEquals(before, read(corrupted, end));
+        assertFalse(log().contains("Dropping torn batch"));
+    }
+
+    @Test
+    public void failedCompactionKeepsTheLog() throws Exception {
+        File file = new File(mFolder.getRoot(), "log");
+        // a directory in the way of the compacted log
+        File blocker = new File(mFolder.getRoot(), "log.compact");
+        assertTrue(new File(blocker, "child").mkdirs());
+        LogBackend log = new LogBackend(file);
+        for (int i = 0; i < 3000; i++) {
+            log.edit().put("k" + i % 10, "value of some length " + i).commit();
+        }
+        awaitLog("Failed to compact");
+        Map<String, String> expected = log.readAll();
+        assertEquals(10, expected.size());
+        assertEquals(expected, log.readAll());
+        int size = log.getLogSize();
+        log.close();
+        assertEquals(expected, new LogBackend(file).readAll());
+
+        assertTrue(new File(blocker, "child").delete() && blocker.delete());
+        log = new LogBackend(file);
+        log.edit().put("k0", "compacted").commit();
+        expected.put("k0", "compacted");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (log.getLogSize() >= size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(log.getLogSize() < size);
+        assertEquals(expected, log.readAll());
+        log.close();
+        assertEquals(expected, new LogBackend(file).readAll());
+    }
+
+    @Test
+    public void reopenAfterCompaction() throws Exception {
+        File file = new File(mFolder.getRoot(), "log");
+        LogBackend log = new LogBackend(file);
+        // enough overwritten entries to compact the log while it is written
+        for (int i = 0; i < 3000; i++) {
+            log.edit().put("k" + i % 10, "value of some length " + i).remove("gone").commit();
+        }
+        Map<String, String> expected = log.readAll();
+        log.close();
+
+        LogBackend reopened = new LogBackend(file);
+        assertEquals(expected, reopened.readAll());
+        assertNull(reopened.read("gone"));
+        reopened.close();
+    }
+
+    private String log() {
+        return new String(mLog.toByteArray(), ValueCodec.UTF_8);
+    }
+
+    private void awaitLog(String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!log().contains(message)) {
+            assertTrue("no \"" + message + "\" in " + log(), System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] read(File file, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private File copy(File file, int length) throws IOException {
+        byte[] bytes = read(file, length);
+        File copy = mFolder.newFile();
+        RandomAccessFile out = new RandomAccessFile(copy, "rw");
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return copy;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import com.pepperonas.aesprefs.AesMetrics.Operation;
+import com.pepperonas.aesprefs.AesMetrics.Stage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link LatencyHistogram} and the metrics recorded by {@link AesStore}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class MetricsTest {
+
+    @Test
+    public void percentilesStayWithinTheBucketWidth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(99));
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        histogram.record(-5);
+
+        assertEquals(1001, histogram.getCount());
+        assertEquals(1000000, histogram.getMaxNanos());
+        assertEquals(500500000 / 1001, histogram.getMeanNanos());
+        assertWithin(500000, histogram.getPercentileNanos(50));
+        assertWithin(990000, histogram.getPercentileNanos(99));
+        assertEquals(1000000, histogram.getPercentileNanos(100));
+        assertEquals(0, histogram.getPercentileNanos(0));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void listenersSeeTimingsAndErrors() {
+        final List<Stage> stages = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+        MetricsListener listener = new MetricsListener() {
+            @Override
+            public void onTiming(Operation operation, Stage stage, long nanos) {
+                if (operation == Operation.PUT) {
+                    stages.add(stage);
+                }
+            }
+
+            @Override
+            public void onError(Operation operation, Throwable error) {
+                errors.add(error);
+            }
+        };
+        AesMetrics metrics = new AesMetrics();
+        metrics.addListener(listener);
+        metrics.record(Operation.PUT, Stage.ENCRYPT, 10);
+        metrics.error(Operation.GET, new IllegalStateException());
+        metrics.removeListener(listener);
+        metrics.record(Operation.PUT, Stage.TOTAL, 20);
+
+        assertEquals(1, stages.size());
+        assertEquals(Stage.ENCRYPT, stages.get(0));
+        assertEquals(1, errors.size());
+        assertEquals(1, metrics.getErrorCount(Operation.GET));
+        assertEquals(20, metrics.getHistogram(Operation.PUT, Stage.TOTAL).getTotalNanos());
+    }
+
+    @Test
+    public void storeRecordsOperations() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10).cacheSize(0).build();
+        AesMetrics metrics = store.getMetrics();
+        assertEquals(1, metrics.getHistogram(Operation.INIT, Stage.TOTAL).getCount());
+        metrics.reset();
+
+        store.put("a", "1");
+        store.get("a", null);
+        assertTrue(storage.edit().put("b", "AAAAAAAA").commit());
+        assertEquals("x", store.get("b", "x"));
+
+        assertEquals(1, metrics.getHistogram(Operation.PUT, Stage.TOTAL).getCount());
+        assertEquals(1, metrics.getHistogram(Operation.PUT, Stage.ENCRYPT).getCount());
+        assertEquals(2, metrics.getHistogram(Operation.GET, Stage.TOTAL).getCount());
+        assertEquals(1, metrics.getHistogram(Operation.GET, Stage.DECRYPT).getCount());
+        assertEquals(1, metrics.getErrorCount(Operation.GET));
+        assertTrue(metrics.getTotalNanos() > 0);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        // a bucket is a quarter of its power of two wide
+        assertTrue(actual + " for " + expected, actual >= expected && actual <= expected + expected / 4);
+    }
+
+}
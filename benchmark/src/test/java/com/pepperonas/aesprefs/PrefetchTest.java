@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests the prefetch of {@link AesStore} into the cache after the init.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class PrefetchTest {
+
+    private static final long WINDOW = 300;
+
+    private MemoryBackend mStorage;
+
+    @Before
+    public void setUp() {
+        mStorage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(mStorage).password("pw").keyDerivationTime(10).build();
+        store.put("a", "1");
+        store.putInt("b", 2);
+        store.put("settings.x", "x");
+        store.put("settings.y", "y");
+        store.put("other", "o");
+    }
+
+    @Test
+    public void prefetchesKeysAndPrefixes() throws Exception {
+        AesStore store = builder().prefetch("a", "missing").prefetchPrefix("settings.").build();
+        awaitPrefetch(store);
+
+        assertEquals("1", store.get("a", null));
+        assertEquals("x", store.get("settings.x", null));
+        assertEquals("y", store.get("settings.y", null));
+        assertEquals(3, store.getCacheHits());
+        assertEquals(0, store.getCacheMisses());
+        assertEquals("o", store.get("other", null));
+        assertEquals(1, store.getCacheMisses());
+    }
+
+    @Test
+    public void prefetchStopsAtTheCacheSize() throws Exception {
+        AesStore store = new AesStore.Builder(mStorage).password("pw").cacheSize(2)
+                .prefetchPrefix("").build();
+        awaitPrefetch(store);
+        assertEquals(2, histogram(store, AesMetrics.Stage.DECRYPT).getCount());
+    }
+
+    @Test
+    public void startupReadsArePrefetchedOnTheNextStart() throws Exception {
+        AesStore store = builder().recordStartupReads(WINDOW).build();
+        assertEquals("1", store.get("a", null));
+        assertEquals(Integer.valueOf(2), store.getInt("b", null));
+        String recorded = awaitRecorded(null);
+
+        store = builder().recordStartupReads(WINDOW).build();
+        awaitPrefetch(store);
+        assertEquals("1", store.get("a", null));
+        assertEquals(Integer.valueOf(2), store.getInt("b", null));
+        assertEquals(2, store.getCacheHits());
+        assertEquals(0, store.getCacheMisses());
+        // the same reads aren't written again
+        Thread.sleep(2 * WINDOW);
+        assertEquals(recorded, mStorage.read(AesStore.PREFETCH_KEY));
+
+        store = builder().recordStartupReads(WINDOW).build();
+        awaitPrefetch(store);
+        assertEquals("1", store.get("a", null));
+        awaitRecorded(recorded);
+
+        store = builder().recordStartupReads(WINDOW).build();
+        awaitPrefetch(store);
+        // the recorded reads and the value of "a"
+        assertEquals(2, histogram(store, AesMetrics.Stage.DECRYPT).getCount());
+        assertEquals("1", store.get("a", null));
+        assertEquals(1, store.getCacheHits());
+    }
+
+    private AesStore.Builder builder() {
+        return new AesStore.Builder(mStorage).password("pw").cacheSize(16);
+    }
+
+    private static LatencyHistogram histogram(AesStore store, AesMetrics.Stage stage) {
+        return store.getMetrics().getHistogram(AesMetrics.Operation.BULK, stage);
+    }
+
+    private static void awaitPrefetch(AesStore store) throws InterruptedException {
+        LatencyHistogram total = histogram(store, AesMetrics.Stage.TOTAL);
+        for (int i = 0; i < 500 && total.getCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, total.getCount());
+    }
+
+    /**
+     * Waits until the startup reads stored differ from the previous ones.
+     */
+    private String awaitRecorded(String previous) throws InterruptedException {
+        String recorded = mStorage.read(AesStore.PREFETCH_KEY);
+        for (int i = 0; i < 500 && (recorded == null || recorded.equals(previous)); i++) {
+            Thread.sleep(10);
+            recorded = mStorage.read(AesStore.PREFETCH_KEY);
+        }
+        assertNotNull(recorded);
+        assertNotEquals(previous, recorded);
+        return recorded;
+    }
+}
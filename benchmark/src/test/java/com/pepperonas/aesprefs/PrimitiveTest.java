@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import com.pepperonas.aesprefs.AesMetrics.Operation;
+import com.pepperonas.aesprefs.AesMetrics.Stage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the primitive accessors of {@link AesStore}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class PrimitiveTest {
+
+    @Test
+    public void roundTrip() {
+        AesStore store = new AesStore.Builder(new MemoryBackend()).password("pw").keyDerivationTime(10).build();
+        store.putIntValue("int", Integer.MIN_VALUE);
+        store.putLongValue("long", Long.MAX_VALUE);
+        store.putFloatValue("float", 1.5f);
+        store.putDoubleValue("double", -0.25);
+        store.putBoolValue("bool", true);
+
+        assertEquals(Integer.MIN_VALUE, store.getIntValue("int", 0));
+        assertEquals(Long.MAX_VALUE, store.getLongValue("long", 0));
+        assertEquals(1.5f, store.getFloatValue("float", 0), 0);
+        assertEquals(-0.25, store.getDoubleValue("double", 0), 0);
+        assertTrue(store.getBoolValue("bool", false));
+        // the boxed accessors read the same values
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), store.getInt("int", null));
+        assertEquals(Boolean.TRUE, store.getBool("bool", null));
+    }
+
+    @Test
+    public void missingAndNullValuesReturnTheDefault() {
+        AesStore store = new AesStore.Builder(new MemoryBackend()).password("pw").keyDerivationTime(10).build();
+        store.putInt("null", null);
+
+        assertEquals(7, store.getIntValue("missing", 7));
+        assertEquals(7, store.getIntValue("null", 7));
+        assertEquals(7L, store.getLongValue("missing", 7L));
+        assertEquals(7f, store.getFloatValue("missing", 7f), 0);
+        assertEquals(7d, store.getDoubleValue("missing", 7d), 0);
+        assertFalse(store.getBoolValue("missing", false));
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void rejectsOtherTypes() {
+        AesStore store = new AesStore.Builder(new MemoryBackend()).password("pw").keyDerivationTime(10).build();
+        store.putLongValue("long", 1L);
+        store.getIntValue("long", 0);
+    }
+
+    @Test
+    public void decryptsOnceAndThenHitsTheCache() {
+        MemoryBackend storage = new MemoryBackend();
+        new AesStore.Builder(storage).password("pw").keyDerivationTime(10).build().putBoolValue("flag", true);
+        AesStore store = new AesStore.Builder(storage).password("pw").cacheSize(8).build();
+        int hits = store.getCacheHits();
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.getBoolValue("flag", false));
+        }
+        assertEquals(1, store.getMetrics().getHistogram(Operation.GET, Stage.DECRYPT).getCount());
+        assertEquals(hits + 99, store.getCacheHits());
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.util.Base64;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the framing of all {@link Record} versions.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class RecordTest {
+
+    @Test
+    public void roundTrip() throws GeneralSecurityException {
+        SecretKey key = Crypt.generateKey();
+        byte[] plain = ValueCodec.encode("value");
+        Record[] records = {
+                new Record(Record.VERSION_1, Crypt.enc(key, "value")),
+                new Record(Record.VERSION_2, Crypt.enc(key, plain)),
+                new Record(Record.VERSION_3, CipherSuite.AES_CBC, (byte) 0,
+                        Crypt.enc(CipherSuite.AES_CBC, key, plain)),
+                new Record(Record.VERSION_3, CipherSuite.AES_GCM, Record.FLAG_DEFLATED,
+                        Crypt.enc(CipherSuite.AES_GCM, key, plain))};
+        for (Record record : records) {
+            Record decoded = Record.decode(record.encode());
+            assertEquals(record.getVersion(), decoded.getVersion());
+            assertEquals(record.getSuite(), decoded.getSuite());
+            assertEquals(record.getFlags(), decoded.getFlags());
+            assertArrayEquals(record.getIv(), decoded.getIv());
+            assertArrayEquals(record.getEncrypted(), decoded.getEncrypted());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownVersion() {
+        Record.decode(new byte[]{9, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedIv() {
+        Record.decode(new byte[]{Record.VERSION_2, 16, 1, 2});
+    }
+
+    @Test
+    public void gcmAuthenticatesHeaderAndKey() throws GeneralSecurityException {
+        SecretKey key = Crypt.generateKey();
+        byte[] plain = ValueCodec.encode("value");
+        Record record = new Record(Record.VERSION_3, CipherSuite.AES_GCM, (byte) 0,
+                Crypt.enc(CipherSuite.AES_GCM, key, plain, Record.aad(CipherSuite.AES_GCM, (byte) 0, "a")));
+        byte[] out = new byte[record.getEncrypted().length];
+        assertEquals(plain.length, Crypt.dec(CipherSuite.AES_GCM, key, record.getIv(), record.getEncrypted(),
+                record.aad("a"), out));
+
+        assertRejected(key, record, record.aad("b"));
+        Record flagged = new Record(Record.VERSION_3, CipherSuite.AES_GCM, Record.FLAG_DEFLATED,
+                new Crypt.CryptSet(record.getEncrypted(), record.getIv()));
+        assertRejected(key, flagged, flagged.aad("a"));
+        assertNull(new Record(Record.VERSION_2, new Crypt.CryptSet(record.getEncrypted(), record.getIv())).aad("a"));
+    }
+
+    @Test
+    public void swappedOrFlaggedValuesAreRejected() {
+        MemoryBackend storage = new MemoryBackend();
+        AesStore store = new AesStore.Builder(storage).password("pw").keyDerivationTime(10).build();
+        store.put("a", "1");
+        store.put("b", "2");
+        store.put("c", "3");
+        String a = storage.read("a");
+        byte[] c = Base64.decode(storage.read("c"), Base64.DEFAULT);
+        c[2] = Record.FLAG_DEFLATED;
+        assertTrue(storage.edit().put("a", storage.read("b")).put("b", a)
+                .put("c", Base64.encodeToString(c, Base64.NO_WRAP)).commit());
+
+        AesStore reopened = new AesStore.Builder(storage).password("pw").build();
+        assertEquals("x", reopened.get("a", "x"));
+        assertEquals("x", reopened.get("b", "x"));
+        assertEquals("x", reopened.get("c", "x"));
+    }
+
+    private static void assertRejected(SecretKey key, Record record, byte[] aad) throws GeneralSecurityException {
+        try {
+            Crypt.dec(record.getSuite(), key, record.getIv(), record.getEncrypted(), aad,
+                    new byte[record.getEncrypted().length]);
+            fail("Accepted a record with different additional data");
+        } catch (AEADBadTagException expected) {
+            // rejected
+        }
+    }
+
+}
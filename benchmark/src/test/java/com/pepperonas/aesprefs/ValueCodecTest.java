@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that every supported type survives {@link ValueCodec}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class ValueCodecTest {
+
+    @Test
+    public void roundTrip() {
+        Set<String> set = new HashSet<>(Arrays.asList("a", "", "\u00fc\u20ac"));
+        Object[] values = {"", "text \u00fc\u20ac", 0, Integer.MIN_VALUE, Long.MAX_VALUE, -1.5f,
+                Double.NaN, true, false, set, Collections.<String>emptySet()};
+        for (Object value : values) {
+            assertEquals(value, ValueCodec.decode(ValueCodec.encode(value)));
+        }
+        assertNull(ValueCodec.decode(ValueCodec.encode(null)));
+        byte[] bytes = {0, 1, -1, 127};
+        assertArrayEquals(bytes, (byte[]) ValueCodec.decode(ValueCodec.encode(bytes)));
+    }
+
+    @Test
+    public void decodesPrefixOfBuffer() {
+        byte[] encoded = ValueCodec.encode("value");
+        byte[] buffer = Arrays.copyOf(encoded, encoded.length + 16);
+        assertEquals("value", ValueCodec.decode(buffer, encoded.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownType() {
+        ValueCodec.decode(new byte[]{(byte) 0x7F, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedValue() {
+        byte[] encoded = ValueCodec.encode(42L);
+        ValueCodec.decode(encoded, encoded.length - 1);
+    }
+
+}
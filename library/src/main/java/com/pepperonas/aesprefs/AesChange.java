@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * A changed key, reported to a {@link ChangeListener}.
+ * <p>
+ * The new value is decrypted on the first call of {@link #getValue()}, so listeners that only
+ * look at the key pay nothing. All listeners share the decrypted value.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class AesChange {
+
+    private final AesStore mStore;
+
+    private final String mKey;
+
+    private final boolean mArray;
+
+    private boolean mRead = false;
+
+    private Object mValue;
+
+    AesChange(AesStore store, String key, boolean array) {
+        mStore = store;
+        mKey = key;
+        mArray = array;
+    }
+
+    /**
+     * Gets key.
+     *
+     * @return the key
+     */
+    @NonNull
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * Is array boolean.
+     *
+     * @return true if the key is a list stored with {@link AesStore#storeArray(String, List)}
+     */
+    public boolean isArray() {
+        return mArray;
+    }
+
+    /**
+     * Gets the current value, decrypted on the first call.
+     *
+     * @return the value, a {@code List<String>} for a list, {@code null} if the key was removed
+     */
+    @Nullable
+    public synchronized Object getValue() {
+        if (!mRead) {
+            mValue = mArray ? mStore.restoreArray(mKey) : mStore.readChanged(mKey);
+            mRead = true;
+        }
+        return mValue;
+    }
+
+    @Override
+    public String toString() {
+        return "AesChange{" + mKey + "}";
+    }
+
+}
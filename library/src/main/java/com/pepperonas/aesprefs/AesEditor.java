@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.pepperonas.aesprefs.AesMetrics.Operation;
+import com.pepperonas.aesprefs.AesMetrics.Stage;
+import com.pepperonas.aesprefs.AesPrefs.LogMode;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects changes and writes them encrypted in one batch.
+ * <p>
+ * Nothing is encrypted or written before {@link #apply()} or {@link #commit()} is called. Both
+ * write all collected values with a single {@link StorageBackend.Batch}, so the preferences
+ * file is rewritten once instead of once per value. The values are encrypted first and the keys
+ * are locked only while the batch is written, so other threads see either none or all of the
+ * changes of a key. Keys the store keeps entries of its own under are rejected, see
+ * {@link AesStore}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class AesEditor {
+
+    private static final String TAG = "AesEditor";
+
+    /**
+     * Marks a pending removal.
+     */
+    private static final Object REMOVED = new Object();
+
+    private final Map<String, Object> mPending = new LinkedHashMap<>();
+
+    private final AesStore mStore;
+
+    /**
+     * The operation the timings are recorded for.
+     */
+    private final Operation mOperation;
+
+    AesEditor(AesStore store, Operation operation) {
+        mStore = store;
+        mOperation = operation;
+    }
+
+    /**
+     * Put.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the aes editor
+     */
+    public AesEditor put(@NonNull String key, @Nullable String value) {
+        mPending.put(checked(key), value);
+        return this;
+    }
+
+    /**
+     * Put int.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the aes editor
+     */
+    public AesEditor putInt(@NonNull String key, @Nullable Integer value) {
+        mPending.put(checked(key), value);
+        return this;
+    }
+
+    /**
+     * Put bool.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the aes editor
+     */
+    public AesEditor putBool(@NonNull String key, @Nullable Boolean value) {
+        mPending.put(checked(key), value);
+        return this;
+    }
+
+    /**
+     * Put float.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the aes editor
+     */
+    public AesEditor putFloat(@NonNull String key, @Nullable Float value) {
+        mPending.put(checked(key), value);
+        return this;
+    }
+
+    /**
+     * Put double.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the aes editor
+     */
+    public AesEditor putDouble(@NonNull String key, @Nullable Double value) {
+        mPending.put(checked(key), value);
+        return this;
+    }
+
+    /**
+     * Put long.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the aes editor
+     */
+    public AesEditor putLong(@NonNull String key, @Nullable Long value) {
+        mPending.put(checked(key), value);
+        return this;
+    }
+
+    /**
+     * Put string set.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the aes editor
+     */
+    public AesEditor putStringSet(@NonNull String key, @Nullable Set<String> value) {
+        mPending.put(checked(key), value);
+        return this;
+    }
+
+    /**
+     * Puts an entry of the store itself, which the public puts reject.
+     */
+    AesEditor putValue(@NonNull String key, @Nullable Object value) {
+        mPending.put(key, value);
+        return this;
+    }
+
+    /**
+     * Remove.
+     *
+     * @param key the key
+     * @return the aes editor
+     * @throws IllegalArgumentException if the key is reserved by the store
+     */
+    public AesEditor remove(@NonNull String key) {
+        mPending.put(checked(key), REMOVED);
+        return this;
+    }
+
+    /**
+     * Removes an entry of the store itself, which {@link #remove(String)} rejects.
+     */
+    AesEditor removeValue(@NonNull String key) {
+        mPending.put(key, REMOVED);
+        return this;
+    }
+
+    private static String checked(String key) {
+        AesStore.checkKey(key);
+        return key;
+    }
+
+    /**
+     * Encrypts all pending values and writes them asynchronously.
+     */
+    public void apply() {
+        long start = System.nanoTime();
+        mStore.awaitReady();
+        StorageBackend.Batch batch = prepare();
+        List<ReentrantLock> locks = mStore.lock(mPending.keySet());
+        try {
+            long t = System.nanoTime();
+            batch.apply();
+            mStore.metrics().record(mOperation, Stage.STORAGE_WRITE, System.nanoTime() - t);
+            publish(start);
+        } finally {
+            mPending.clear();
+            mStore.unlock(locks);
+        }
+    }
+
+    /**
+     * Encrypts all pending values and writes them synchronously.
+     *
+     * @return true if the new values were successfully written to persistent storage, the cache
+     * and the change listeners only see them if so
+     */
+    public boolean commit() {
+        long start = System.nanoTime();
+        mStore.awaitReady();
+        StorageBackend.Batch batch = prepare();
+        List<ReentrantLock> locks = mStore.lock(mPending.keySet());
+        try {
+            long t = System.nanoTime();
+            boolean written = batch.commit();
+            mStore.metrics().record(mOperation, Stage.STORAGE_WRITE, System.nanoTime() - t);
+            if (written) {
+                publish(start);
+            } else if (mStore.isLogging(LogMode.SET)) {
+                Log.d(TAG, "failed to write " + mPending.size() + " values");
+            }
+            return written;
+        } finally {
+            mPending.clear();
+            mStore.unlock(locks);
+        }
+    }
+
+    /**
+     * Encrypts the pending values into a batch, which writes nothing before it is applied.
+     */
+    private StorageBackend.Batch prepare() {
+        StorageBackend.Batch batch = mStore.storage().edit();
+        for (Map.Entry<String, Object> entry : mPending.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                mStore.erase(batch, entry.getKey());
+            } else {
+                mStore.write(batch, entry.getKey(), entry.getValue(), mOperation);
+            }
+        }
+        return batch;
+    }
+
+    private void publish(long start) {
+        for (Map.Entry<String, Object> entry : mPending.entrySet()) {
+            mStore.updateCache(entry.getKey(), entry.getValue() == REMOVED ? null : entry.getValue());
+            if (mOperation != Operation.ARRAY) {
+                // the list operations report the list instead of its chunks
+                mStore.changed(entry.getKey());
+            }
+        }
+        if (mStore.isLogging(LogMode.SET)) {
+            Log.d(TAG, "wrote " + mPending.size() + " values in one batch");
+        }
+        if (mOperation == Operation.PUT) {
+            // list operations record their own total
+            mStore.metrics().record(Operation.PUT, Stage.TOTAL, System.nanoTime() - start);
+        }
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and error counts of an {@link AesStore}, per operation and stage.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class AesMetrics {
+
+    /**
+     * The enum Operation.
+     */
+    public enum Operation {
+        /**
+         * Key derivation and first load of the store.
+         */
+        INIT,
+        /**
+         * Reads of single values.
+         */
+        GET,
+        /**
+         * Writes of single values or batches.
+         */
+        PUT,
+        /**
+         * Reads and writes of lists.
+         */
+        ARRAY,
+        /**
+         * Parallel reads of many values.
+         */
+        BULK,
+        /**
+         * Re-encryption of entries by an {@link AesMigration}.
+         */
+        MIGRATE
+    }
+
+    /**
+     * The enum Stage.
+     */
+    public enum Stage {
+        /**
+         * The whole operation.
+         */
+        TOTAL,
+        /**
+         * PBKDF2 key derivation.
+         */
+        KEY_DERIVATION,
+        /**
+         * Encryption.
+         */
+        ENCRYPT,
+        /**
+         * Decryption.
+         */
+        DECRYPT,
+        /**
+         * Base64 encoding and decoding.
+         */
+        BASE64,
+        /**
+         * Reading from the storage.
+         */
+        STORAGE_READ,
+        /**
+         * Writing to the storage.
+         */
+        STORAGE_WRITE,
+        /**
+         * Compression and decompression of large values.
+         */
+        COMPRESSION
+    }
+
+    private final LatencyHistogram[][] histograms;
+    private final AtomicLongArray errors = new AtomicLongArray(Operation.values().length);
+    /**
+     * Copied on write and iterated by index, so that recording allocates nothing.
+     */
+    private volatile MetricsListener[] listeners = new MetricsListener[0];
+
+    AesMetrics() {
+        histograms = new LatencyHistogram[Operation.values().length][Stage.values().length];
+        for (LatencyHistogram[] stages : histograms) {
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    void record(Operation operation, Stage stage, long nanos) {
+        histograms[operation.ordinal()][stage.ordinal()].record(nanos);
+        MetricsListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onTiming(operation, stage, nanos);
+        }
+    }
+
+    void error(Operation operation, Throwable error) {
+        errors.incrementAndGet(operation.ordinal());
+        MetricsListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onError(operation, error);
+        }
+    }
+
+    /**
+     * Gets a histogram.
+     *
+     * @param operation the operation
+     * @param stage     the stage
+     * @return the histogram
+     */
+    @NonNull
+    public LatencyHistogram getHistogram(@NonNull Operation operation, @NonNull Stage stage) {
+        return histograms[operation.ordinal()][stage.ordinal()];
+    }
+
+    /**
+     * Gets error count.
+     *
+     * @param operation the operation
+     * @return the number of failed operations
+     */
+    public long getErrorCount(@NonNull Operation operation) {
+        return errors.get(operation.ordinal());
+    }
+
+    /**
+     * Gets total nanos.
+     *
+     * @return the time spent in all operations
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            total += getHistogram(operation, Stage.TOTAL).getTotalNanos();
+        }
+        return total;
+    }
+
+    /**
+     * Add listener.
+     *
+     * @param listener the listener
+     */
+    public synchronized void addListener(@NonNull MetricsListener listener) {
+        MetricsListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+        added[listeners.length] = listener;
+        listeners = added;
+    }
+
+    /**
+     * Remove listener.
+     *
+     * @param listener the listener
+     */
+    public synchronized void removeListener(@NonNull MetricsListener listener) {
+        MetricsListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                MetricsListener[] removed = new MetricsListener[current.length - 1];
+                System.arraycopy(current, 0, removed, 0, i);
+                System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+                listeners = removed;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reset all histograms and error counts.
+     */
+    public void reset() {
+        for (LatencyHistogram[] stages : histograms) {
+            for (LatencyHistogram histogram : stages) {
+                histogram.reset();
+            }
+        }
+        for (int i = 0; i < errors.length(); i++) {
+            errors.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = getHistogram(operation, stage);
+                if (histogram.getCount() > 0) {
+                    sb.append(operation).append('/').append(stage).append(": ")
+                            .append(histogram).append('\n');
+                }
+            }
+            if (getErrorCount(operation) > 0) {
+                sb.append(operation).append(" errors: ").append(getErrorCount(operation)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+}
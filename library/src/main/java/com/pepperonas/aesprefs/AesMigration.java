@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-encrypts the entries of a store into the current format on a background thread.
+ * <p>
+ * Entries are walked in key order, in batches of {@link #BATCH_SIZE}. Every batch is written
+ * together with a checkpoint, so a migration that was cancelled or killed with the process
+ * continues behind the last written batch when {@link AesStore#startMigration()} is called
+ * again. Reads and writes keep working while the store is migrated; a write only waits for the
+ * batch that holds its key.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class AesMigration {
+
+    private static final String TAG = "AesMigration";
+
+    /**
+     * Entries written per batch and checkpoint.
+     */
+    static final int BATCH_SIZE = 64;
+
+    private final AesStore mStore;
+
+    private volatile Future<Void> mFuture;
+
+    private volatile boolean mCancelled = false;
+
+    private volatile int mTotal = -1;
+
+    private volatile int mProcessed = 0;
+
+    private volatile int mMigrated = 0;
+
+    private volatile int mFailed = 0;
+
+    private volatile long mStart = 0;
+
+    private volatile long mEnd = 0;
+
+    AesMigration(AesStore store) {
+        mStore = store;
+    }
+
+    void start(ExecutorService executor) {
+        mFuture = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                run();
+                return null;
+            }
+        });
+    }
+
+    private void run() {
+        mStore.awaitReady();
+        mStart = System.nanoTime();
+        try {
+            String checkpoint = mStore.get(AesStore.MIGRATION_KEY, null);
+            List<String> keys = new ArrayList<>();
+            for (String key : mStore.migratableKeys()) {
+                if (checkpoint == null || key.compareTo(checkpoint) > 0) {
+                    keys.add(key);
+                }
+            }
+            Collections.sort(keys);
+            mTotal = keys.size();
+            for (int from = 0; from < keys.size() && !mCancelled; from += BATCH_SIZE) {
+                List<String> batch = keys.subList(from, Math.min(from + BATCH_SIZE, keys.size()));
+                mMigrated += mStore.reencrypt(batch, batch.get(batch.size() - 1), this);
+                mProcessed += batch.size();
+            }
+            if (!mCancelled) {
+                mStore.edit().removeValue(AesStore.MIGRATION_KEY).commit();
+            }
+        } finally {
+            mEnd = System.nanoTime();
+        }
+        if (mStore.isLogging(AesPrefs.LogMode.DEFAULT)) {
+            Log.i(TAG, (mCancelled ? "cancelled " : "migrated ") + mStore.getFilename() + ": "
+                    + mMigrated + " re-encrypted, " + mFailed + " failed, "
+                    + getRemaining() + " remaining");
+        }
+    }
+
+    void failed(String key, Exception e) {
+        mFailed++;
+        if (mStore.isLogging(AesPrefs.LogMode.DEFAULT)) {
+            Log.w(TAG, "Failed to migrate " + key, e);
+        }
+    }
+
+    /**
+     * Stops the migration behind the current batch. It continues from there when it is
+     * started again.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Is done.
+     *
+     * @return true if the migration finished, was cancelled or failed
+     */
+    public boolean isDone() {
+        Future<Void> future = mFuture;
+        return future != null && future.isDone();
+    }
+
+    /**
+     * Blocks until the migration is done.
+     *
+     * @throws InterruptedException if the calling thread is interrupted
+     * @throws IllegalStateException if the migration failed
+     */
+    public void await() throws InterruptedException {
+        try {
+            mFuture.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Migration of " + mStore.getFilename() + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Gets the future of the migration.
+     *
+     * @return the future
+     */
+    @Nullable
+    public Future<Void> getFuture() {
+        return mFuture;
+    }
+
+    /**
+     * Gets the number of entries left to check.
+     *
+     * @return the remaining entries, {@code -1} while the keys are listed
+     */
+    public int getRemaining() {
+        int total = mTotal;
+        return total < 0 ? -1 : total - mProcessed;
+    }
+
+    /**
+     * Gets the number of entries checked so far.
+     *
+     * @return the processed entries
+     */
+    public int getProcessed() {
+        return mProcessed;
+    }
+
+    /**
+     * Gets the number of entries re-encrypted so far. Entries in the current format are left as
+     * they are.
+     *
+     * @return the re-encrypted entries
+     */
+    public int getMigrated() {
+        return mMigrated;
+    }
+
+    /**
+     * Gets the number of entries that couldn't be decrypted and were left as they are.
+     *
+     * @return the failed entries
+     */
+    public int getFailed() {
+        return mFailed;
+    }
+
+    /**
+     * Gets the throughput.
+     *
+     * @return the entries checked per second
+     */
+    public double getEntriesPerSecond() {
+        long start = mStart;
+        if (start == 0) {
+            return 0;
+        }
+        long end = mEnd == 0 ? System.nanoTime() : mEnd;
+        long nanos = Math.max(1, end - start);
+        return mProcessed * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "AesMigration{processed=" + mProcessed + ", migrated=" + mMigrated + ", failed="
+                + mFailed + ", remaining=" + getRemaining() + "}";
+    }
+
+}
@@ -20,19 +20,21 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Base64;
-import android.util.Log;
 
-import com.pepperonas.aesprefs.Crypt.CryptSet;
-import com.pepperonas.aesprefs.Crypt.KeySet;
-
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
-
-import javax.crypto.SecretKey;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 /**
  * The type Aes prefs.
+ * <p>
+ * A static facade over a default {@link AesStore}. Use {@link AesStore.Builder} to open further
+ * stores with their own file and key.
  *
  * @author Martin Pfeffer
  * @see <a href="https://celox.io">https://celox.io</a>
@@ -64,22 +66,33 @@ public class AesPrefs {
         }
     }
 
-    private static final String TAIL = "=";
-
     /**
-     * Constants
+     * Member
      */
-    private static final String TAG = "AesPrefs";
+    private static volatile AesStore mStore;
+
+    private static volatile int mCacheSize = 0;
+
+    private static volatile long mKeyDerivationMillis = 0;
+
+    private static volatile String[] mPrefetchKeys = new String[0];
+
+    private static volatile String[] mPrefetchPrefixes = new String[0];
+
+    private static volatile long mStartupWindow = 0;
+
+    private static volatile int mCompressionThreshold = 0;
 
     /**
-     * Member
+     * Callback for {@link #initAsync(Context, String, String, LogMode, InitCallback)}.
      */
-    private static Context mCtx;
-
-    private static String mFilename;
+    public interface InitCallback {
 
-    private static long mExecutionTime = 0;
-    private static SecretKey mKey;
+        /**
+         * Called on the main thread once the key is derived and the preferences are loaded.
+         */
+        void onInitialized();
+    }
 
     /**
      * The enum Log mode.
@@ -118,7 +131,7 @@ public class AesPrefs {
         }
     }
 
-    private static LogMode mLog = LogMode.DEFAULT;
+    private static volatile LogMode mLog = LogMode.DEFAULT;
 
     /**
      * Log mode.
@@ -127,6 +140,109 @@ public class AesPrefs {
      */
     public static void logMode(@NonNull LogMode logMode) {
         mLog = logMode;
+        if (mStore != null) {
+            mStore.logMode(logMode);
+        }
+    }
+
+    /**
+     * Calibrates the key derivation of a new preferences file to take about the given time on
+     * the device. Call before the init; existing files keep their stored iteration count.
+     *
+     * @param targetMillis the target time in milliseconds, {@code 0} to use
+     *                     {@link Crypt#DERIVATION_ITERATION_COUNT}
+     * @see AesStore.Builder#keyDerivationTime(long)
+     */
+    public static void keyDerivationTime(long targetMillis) {
+        if (targetMillis < 0) {
+            throw new IllegalArgumentException("targetMillis < 0");
+        }
+        mKeyDerivationMillis = targetMillis;
+    }
+
+    /**
+     * Compresses values of at least the given size before they are encrypted. Call before the
+     * init.
+     *
+     * @param minBytes the minimum size in bytes, {@code 0} to disable the compression
+     * @see AesStore.Builder#compressionThreshold(int)
+     */
+    public static void compressionThreshold(int minBytes) {
+        if (minBytes < 0) {
+            throw new IllegalArgumentException("minBytes < 0");
+        }
+        mCompressionThreshold = minBytes;
+    }
+
+    /**
+     * Sets the keys and key prefixes that are decrypted into the cache right after the init.
+     * Call before the init, together with {@link #enableCache(int)}.
+     *
+     * @param keys     the keys
+     * @param prefixes the key prefixes
+     * @see AesStore.Builder#prefetch(String...)
+     */
+    public static void prefetch(@NonNull Collection<String> keys, @NonNull Collection<String> prefixes) {
+        mPrefetchKeys = keys.toArray(new String[keys.size()]);
+        mPrefetchPrefixes = prefixes.toArray(new String[prefixes.size()]);
+    }
+
+    /**
+     * Records the keys read until the window after the init is over, to prefetch them on the
+     * next start. Call before the init.
+     *
+     * @param windowMillis the window in milliseconds, {@code 0} to record nothing
+     * @see AesStore.Builder#recordStartupReads(long)
+     */
+    public static void recordStartupReads(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis < 0");
+        }
+        mStartupWindow = windowMillis;
+    }
+
+    /**
+     * Enables the in-memory cache of decrypted values.
+     *
+     * @param maxEntries the maximum number of cached values
+     * @see AesStore#enableCache(int)
+     */
+    public static void enableCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries <= 0");
+        }
+        mCacheSize = maxEntries;
+        if (mStore != null) {
+            mStore.enableCache(maxEntries);
+        }
+    }
+
+    /**
+     * Disables the cache and drops all cached values.
+     */
+    public static void disableCache() {
+        mCacheSize = 0;
+        if (mStore != null) {
+            mStore.disableCache();
+        }
+    }
+
+    /**
+     * Gets the number of reads served from the cache.
+     *
+     * @return the cache hits
+     */
+    public static int getCacheHits() {
+        return mStore == null ? 0 : mStore.getCacheHits();
+    }
+
+    /**
+     * Gets the number of reads that had to be decrypted.
+     *
+     * @return the cache misses
+     */
+    public static int getCacheMisses() {
+        return mStore == null ? 0 : mStore.getCacheMisses();
     }
 
     /**
@@ -134,6 +250,7 @@ public class AesPrefs {
      *
      * @param context  the context
      * @param password the password
+     * @throws IllegalStateException if the password doesn't match the one the store was created with
      */
     public static void init(@NonNull Context context,
                             @NonNull String password) {
@@ -147,6 +264,7 @@ public class AesPrefs {
      * @param context  the context
      * @param password the password
      * @param logMode  the log mode
+     * @throws IllegalStateException if the password doesn't match the one the store was created with
      */
     public static void init(@NonNull Context context,
                             @NonNull String password, @Nullable LogMode logMode) {
@@ -165,6 +283,7 @@ public class AesPrefs {
      * @param filename the filename
      * @param password the password
      * @param logMode  the log mode
+     * @throws IllegalStateException if the password doesn't match the one the store was created with
      */
     public static void init(@NonNull Context context, @NonNull String filename,
                             @NonNull String password, @Nullable LogMode logMode) {
@@ -182,42 +301,110 @@ public class AesPrefs {
      * @param context  the context
      * @param filename the filename
      * @param password the password
+     * @throws IllegalStateException if the password doesn't match the one the store was created with
      */
     public static void init(@NonNull Context context, @Nullable String filename, @NonNull final String password) {
-        if (mLog != LogMode.NONE) {
-            Log.i(TAG, "Initializing AesPrefs...");
-        }
+        mStore = builder(context, filename, password).build();
+    }
+
+    /**
+     * Init with another storage than SharedPreferences.
+     *
+     * @param storage  the storage backend
+     * @param password the password
+     * @see AesStore.Builder#storage(StorageBackend)
+     * @throws IllegalStateException if the password doesn't match the one the store was created with
+     */
+    public static void init(@NonNull StorageBackend storage, @NonNull String password) {
+        mLog = LogMode.NONE;
+        mStore = new AesStore.Builder(storage)
+                .password(password)
+                .logMode(mLog)
+                .cacheSize(mCacheSize)
+                .keyDerivationTime(mKeyDerivationMillis)
+                .prefetch(mPrefetchKeys)
+                .prefetchPrefix(mPrefetchPrefixes)
+                .recordStartupReads(mStartupWindow)
+                .compressionThreshold(mCompressionThreshold)
+                .build();
+    }
+
+    /**
+     * Init async (Recommended).
+     *
+     * @param context  the context
+     * @param password the password
+     * @param callback the callback, may be {@code null}
+     * @return the future, done once AesPrefs is ready
+     * @see #initAsync(Context, String, String, LogMode, InitCallback)
+     */
+    public static Future<Void> initAsync(@NonNull Context context, @NonNull String password,
+                                         @Nullable InitCallback callback) {
+        return initAsync(context, ".aesconfig", password, LogMode.NONE, callback);
+    }
+
+    /**
+     * Init async.
+     * <p>
+     * Derives the key and loads the preferences file on a background thread, so it can be called
+     * from {@code Application.onCreate()} without blocking. Any get or put made before the init
+     * is done waits for it.
+     *
+     * @param context  the context
+     * @param filename the filename
+     * @param password the password
+     * @param logMode  the log mode
+     * @param callback the callback, may be {@code null}
+     * @return the future, done once AesPrefs is ready; it fails with an
+     * {@link IllegalStateException} if the password is wrong
+     */
+    public static Future<Void> initAsync(@NonNull Context context, @NonNull String filename,
+                                         @NonNull String password, @Nullable LogMode logMode,
+                                         @Nullable InitCallback callback) {
+        mLog = logMode == null ? LogMode.NONE : logMode;
+        AesStore store = builder(context, filename, password).buildAsync(callback);
+        mStore = store;
+        return store.getInitFuture();
+    }
 
-        mCtx = context.getApplicationContext();
+    private static AesStore.Builder builder(Context context, @Nullable String filename, String password) {
+        AesStore.Builder builder = new AesStore.Builder(context)
+                .password(password)
+                .logMode(mLog)
+                .cacheSize(mCacheSize)
+                .keyDerivationTime(mKeyDerivationMillis)
+                .prefetch(mPrefetchKeys)
+                .prefetchPrefix(mPrefetchPrefixes)
+                .recordStartupReads(mStartupWindow)
+                .compressionThreshold(mCompressionThreshold);
         if (filename != null) {
-            mFilename = filename;
-        }
-        //        String mPassword = password;
-
-        SharedPreferences sp = mCtx
-                .getSharedPreferences(mFilename, Context.MODE_PRIVATE);
-        String mSecRand = sp.getString("sr", null);
-        KeySet mKs;
-        byte[] mSrBytes;
-        if (mSecRand == null) {
-            mKs = Crypt.getSecretKey(password, null);
-            mKey = mKs.getSecretKey();
-            mSrBytes = mKs.getSalt();
-            mSecRand = Base64.encodeToString(mSrBytes, Base64.DEFAULT);
-            sp.edit().putString("sr", mSecRand).apply();
-        } else {
-            mSrBytes = Base64.decode(sp.getString("sr", null), Base64.DEFAULT);
-            mKs = Crypt.getSecretKey(password, mSrBytes);
-            mKey = mKs.getSecretKey();
+            builder.filename(filename);
         }
+        return builder;
     }
 
-    private static String toB32(byte[] bytes) {
-        return Base64.encodeToString(bytes, Base64.DEFAULT);
+    /**
+     * Gets the default store.
+     *
+     * @return the store behind the static methods
+     * @throws IllegalStateException if AesPrefs was not initialized
+     */
+    @NonNull
+    public static AesStore getStore() {
+        AesStore store = mStore;
+        if (store == null) {
+            throw new IllegalStateException("AesPrefs.init() was not called");
+        }
+        return store;
     }
 
-    private static byte[] toByte(String string) {
-        return Base64.decode(string, Base64.DEFAULT);
+    /**
+     * Is ready.
+     *
+     * @return true if no async init is pending
+     */
+    public static boolean isReady() {
+        return mStore != null && mStore.isReady();
     }
 
     /**
@@ -227,21 +414,17 @@ public class AesPrefs {
      * @param value the value
      */
     public static void put(@NonNull String key, @Nullable String value) {
-        long start = System.currentTimeMillis();
-
-        CryptSet cs = Crypt.enc(mKey, value);
-        String e = toB32(cs.getEncrypted());
-        String i = toB32(cs.getIv());
-
-        SharedPreferences sp = mCtx.getSharedPreferences(mFilename, Context.MODE_PRIVATE);
-        sp.edit().putString(key, e).apply();
-        sp.edit().putString(key + TAIL, i).apply();
-
-        if (mLog == LogMode.ALL || mLog == LogMode.SET) {
-            Log.d(TAG, "put " + key + " <- " + value);
-        }
+        getStore().put(key, value);
+    }
 
-        mExecutionTime += System.currentTimeMillis() - start;
+    /**
+     * Edit many values at once.
+     *
+     * @return the aes editor
+     * @see AesStore#edit()
+     */
+    public static AesEditor edit() {
+        return getStore().edit();
     }
 
     /**
@@ -253,28 +436,65 @@ public class AesPrefs {
      */
     @Nullable
     public static String get(@NonNull String key, @Nullable String defaultValue) {
-        long start = System.currentTimeMillis();
-
-        SharedPreferences sp = mCtx.getSharedPreferences(mFilename, Context.MODE_PRIVATE);
-
-        byte[] e = toByte(sp.getString(key, ""));
-        byte[] i = toByte(sp.getString(key + TAIL, ""));
-
-        try {
-
-            String de = Crypt.dec(mKey, i, e);
-            if (mLog == LogMode.ALL || mLog == LogMode.GET) {
-                Log.d(TAG, "get  " + key + " -> " + de);
-            }
-            mExecutionTime += System.currentTimeMillis() - start;
-            return de;
-        } catch (Exception ex) {
-            if (mLog == LogMode.ALL || mLog == LogMode.GET) {
-                Log.d(TAG, ex.getMessage());
-            }
-            mExecutionTime += System.currentTimeMillis() - start;
-            return defaultValue;
-        }
+        return getStore().get(key, defaultValue);
+    }
+
+    /**
+     * Get all values.
+     *
+     * @return the values and the per-key errors
+     * @see AesStore#getAll()
+     */
+    public static BulkResult getAll() {
+        return getStore().getAll();
+    }
+
+    /**
+     * Get many values.
+     *
+     * @param keys the keys
+     * @return the values and the per-key errors
+     * @see AesStore#getMany(Collection)
+     */
+    public static BulkResult getMany(@NonNull Collection<String> keys) {
+        return getStore().getMany(keys);
+    }
+
+    /**
+     * Adds to an encrypted counter and returns the new value.
+     *
+     * @param key   the key
+     * @param delta the value to add
+     * @return the new value
+     * @see AesStore#incrementAndGet(String, long)
+     */
+    public static long incrementAndGet(@NonNull String key, long delta) {
+        return getStore().incrementAndGet(key, delta);
+    }
+
+    /**
+     * Puts the value if the key is not stored yet, as one atomic operation.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return true if the value was put
+     * @see AesStore#putIfAbsent(String, Object)
+     */
+    public static boolean putIfAbsent(@NonNull String key, @Nullable Object value) {
+        return getStore().putIfAbsent(key, value);
+    }
+
+    /**
+     * Puts the new value if the stored value equals the expected one, as one atomic operation.
+     *
+     * @param key    the key
+     * @param expect the expected value
+     * @param update the new value
+     * @return true if the new value was put
+     * @see AesStore#compareAndSet(String, Object, Object)
+     */
+    public static boolean compareAndSet(@NonNull String key, @Nullable Object expect, @Nullable Object update) {
+        return getStore().compareAndSet(key, expect, update);
     }
 
     /**
@@ -285,18 +505,7 @@ public class AesPrefs {
      * @return the boolean
      */
     public static boolean initInt(@NonNull String key, @Nullable Integer value) {
-        Integer i;
-        try {
-            i = getInt(key, Integer.MIN_VALUE + 1);
-            if (i == Integer.MIN_VALUE + 1) {
-                putInt(key, value);
-            }
-        } catch (Exception e) {
-            putInt(key, value);
-            return true;
-        }
-
-        return i == Integer.MIN_VALUE + 1;
+        return getStore().initInt(key, value);
     }
 
     /**
@@ -306,7 +515,7 @@ public class AesPrefs {
      * @param value the value
      */
     public static void putInt(@NonNull String key, @Nullable Integer value) {
-        put(key, String.valueOf(value));
+        getStore().putInt(key, value);
     }
 
     /**
@@ -318,68 +527,24 @@ public class AesPrefs {
      */
     @Nullable
     public static Integer getInt(@NonNull String key, @Nullable Integer defaultValue) {
-        long start = System.currentTimeMillis();
-        try {
-            return Integer.valueOf(get(key, String.valueOf(defaultValue)));
-
-        } catch (NumberFormatException nfe) {
-            mExecutionTime += (System.currentTimeMillis() - start);
-            return null;
-        }
+        return getStore().getInt(key, defaultValue);
     }
 
     public static boolean initBool(@NonNull String key, @Nullable Boolean value) {
-        Boolean b;
-        try {
-            b = getBool(key, null);
-            if (b == null) {
-                Log.i(TAG, "initBool: " + b);
-                putBool(key, value);
-                return true;
-            }
-        } catch (Exception e) {
-            putBool(key, value);
-            return true;
-        }
-
-        return false;
+        return getStore().initBool(key, value);
     }
 
     public static void putBool(@NonNull String key, @Nullable Boolean value) {
-        put(key, String.valueOf(value));
+        getStore().putBool(key, value);
     }
 
     @Nullable
     public static Boolean getBool(@NonNull String key, @Nullable Boolean defaultValue) {
-        long start = System.currentTimeMillis();
-        try {
-
-            //noinspection ConstantConditions
-            if (get(key, String.valueOf(defaultValue)).equals("null")) {
-                return null;
-            }
-
-            return Boolean.valueOf(get(key, String.valueOf(defaultValue)));
-
-        } catch (NumberFormatException nfe) {
-            mExecutionTime += (System.currentTimeMillis() - start);
-            return null;
-        }
+        return getStore().getBool(key, defaultValue);
     }
 
     public static boolean initFloat(@NonNull String key, @Nullable Float value) {
-        Float f;
-        try {
-            f = getFloat(key, Float.MIN_VALUE + 1F);
-            if (f == Float.MIN_VALUE + 1F) {
-                putFloat(key, value);
-            }
-        } catch (Exception e) {
-            putFloat(key, value);
-            return true;
-        }
-
-        return f == Float.MIN_VALUE + 1F;
+        return getStore().initFloat(key, value);
     }
 
     /**
@@ -389,7 +554,7 @@ public class AesPrefs {
      * @param value the value
      */
     public static void putFloat(@NonNull String key, @Nullable Float value) {
-        put(key, String.valueOf(value));
+        getStore().putFloat(key, value);
     }
 
     /**
@@ -401,22 +566,11 @@ public class AesPrefs {
      */
     @Nullable
     public static Float getFloat(@NonNull String key, @Nullable Float defaultValue) {
-        return Float.valueOf(get(key, String.valueOf(defaultValue)));
+        return getStore().getFloat(key, defaultValue);
     }
 
     public static boolean initDouble(@NonNull String key, @Nullable Double value) {
-        Double d;
-        try {
-            d = getDouble(key, Double.MIN_VALUE + 1D);
-            if (d == Float.MIN_VALUE + 1D) {
-                putDouble(key, value);
-            }
-        } catch (Exception e) {
-            putDouble(key, value);
-            return true;
-        }
-
-        return d == Double.MIN_VALUE + 1D;
+        return getStore().initDouble(key, value);
     }
 
     /**
@@ -426,7 +580,7 @@ public class AesPrefs {
      * @param value the value
      */
     public static void putDouble(@NonNull String key, @Nullable Double value) {
-        put(key, String.valueOf(value));
+        getStore().putDouble(key, value);
     }
 
     /**
@@ -438,22 +592,11 @@ public class AesPrefs {
      */
     @Nullable
     public static Double getDouble(@NonNull String key, @Nullable Double defaultValue) {
-        return Double.valueOf(get(key, String.valueOf(defaultValue)));
+        return getStore().getDouble(key, defaultValue);
     }
 
     public static boolean initLong(@NonNull String key, @Nullable Long value) {
-        Long l;
-        try {
-            l = getLong(key, Long.MIN_VALUE + 1L);
-            if (l == Long.MIN_VALUE + 1L) {
-                putLong(key, value);
-            }
-        } catch (Exception e) {
-            putLong(key, value);
-            return true;
-        }
-
-        return l == Long.MIN_VALUE + 1L;
+        return getStore().initLong(key, value);
     }
 
     /**
@@ -463,7 +606,7 @@ public class AesPrefs {
      * @param value the value
      */
     public static void putLong(@NonNull String key, @Nullable Long value) {
-        put(key, String.valueOf(value));
+        getStore().putLong(key, value);
     }
 
     /**
@@ -475,7 +618,155 @@ public class AesPrefs {
      */
     @Nullable
     public static Long getLong(@NonNull String key, @Nullable Long defaultValue) {
-        return Long.valueOf(get(key, String.valueOf(defaultValue)));
+        return getStore().getLong(key, defaultValue);
+    }
+
+    /**
+     * Put string set.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public static void putStringSet(@NonNull String key, @Nullable Set<String> value) {
+        getStore().putStringSet(key, value);
+    }
+
+    /**
+     * Gets string set.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the string set
+     */
+    @Nullable
+    public static Set<String> getStringSet(@NonNull String key, @Nullable Set<String> defaultValue) {
+        return getStore().getStringSet(key, defaultValue);
+    }
+
+    /**
+     * Imports all entries of a plain preferences file into the default store.
+     *
+     * @param context      the context
+     * @param name         the name of the plain preferences file
+     * @param removeSource true to remove the imported entries from the source once they are
+     *                     committed
+     * @return the imported values and the per-key errors
+     * @see AesStore#importPreferences(SharedPreferences, boolean)
+     */
+    public static BulkResult importPreferences(@NonNull Context context, @NonNull String name,
+                                               boolean removeSource) {
+        return getStore().importPreferences(
+                context.getSharedPreferences(name, Context.MODE_PRIVATE), removeSource);
+    }
+
+    /**
+     * Gets int value.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the int
+     * @see AesStore#getIntValue(String, int)
+     */
+    public static int getIntValue(@NonNull String key, int defaultValue) {
+        return getStore().getIntValue(key, defaultValue);
+    }
+
+    /**
+     * Put int value.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public static void putIntValue(@NonNull String key, int value) {
+        getStore().putIntValue(key, value);
+    }
+
+    /**
+     * Gets long value.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the long
+     * @see AesStore#getLongValue(String, long)
+     */
+    public static long getLongValue(@NonNull String key, long defaultValue) {
+        return getStore().getLongValue(key, defaultValue);
+    }
+
+    /**
+     * Put long value.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public static void putLongValue(@NonNull String key, long value) {
+        getStore().putLongValue(key, value);
+    }
+
+    /**
+     * Gets float value.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the float
+     * @see AesStore#getFloatValue(String, float)
+     */
+    public static float getFloatValue(@NonNull String key, float defaultValue) {
+        return getStore().getFloatValue(key, defaultValue);
+    }
+
+    /**
+     * Put float value.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public static void putFloatValue(@NonNull String key, float value) {
+        getStore().putFloatValue(key, value);
+    }
+
+    /**
+     * Gets double value.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the double
+     * @see AesStore#getDoubleValue(String, double)
+     */
+    public static double getDoubleValue(@NonNull String key, double defaultValue) {
+        return getStore().getDoubleValue(key, defaultValue);
+    }
+
+    /**
+     * Put double value.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public static void putDoubleValue(@NonNull String key, double value) {
+        getStore().putDoubleValue(key, value);
+    }
+
+    /**
+     * Gets bool value.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the bool
+     * @see AesStore#getBoolValue(String, boolean)
+     */
+    public static boolean getBoolValue(@NonNull String key, boolean defaultValue) {
+        return getStore().getBoolValue(key, defaultValue);
+    }
+
+    /**
+     * Put bool value.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public static void putBoolValue(@NonNull String key, boolean value) {
+        getStore().putBoolValue(key, value);
     }
 
     /**
@@ -485,10 +776,7 @@ public class AesPrefs {
      * @param values the values
      */
     public static void storeArray(@NonNull String key, @Nullable List<String> values) {
-        putInt(key + "_size", values.size());
-        for (int i = 0; i < values.size(); i++) {
-            put(key + "_" + i, values.get(i));
-        }
+        getStore().storeArray(key, values);
     }
 
     /**
@@ -498,28 +786,162 @@ public class AesPrefs {
      * @return the list
      */
     public static List<String> restoreArray(@NonNull String key) {
-        int size = getInt(key + "_size", null);
-        try {
-            List<String> strings = new ArrayList<>();
-            for (int i = 0; i < size; i++) {
-                strings.add(get(key + "_" + i, ""));
-            }
-            return strings;
-        } catch (Exception e) {
-            if (mLog == LogMode.ALL || mLog == LogMode.GET) {
-                e.printStackTrace();
-            }
-            return new ArrayList<>();
-        }
+        return getStore().restoreArray(key);
+    }
+
+    /**
+     * Append to array.
+     *
+     * @param key   the key
+     * @param value the value
+     * @see AesStore#appendToArray(String, String)
+     */
+    public static void appendToArray(@NonNull String key, @Nullable String value) {
+        getStore().appendToArray(key, value);
+    }
+
+    /**
+     * Remove from array.
+     *
+     * @param key   the key
+     * @param index the index of the element
+     * @return the removed element
+     * @see AesStore#removeFromArray(String, int)
+     */
+    @Nullable
+    public static String removeFromArray(@NonNull String key, int index) {
+        return getStore().removeFromArray(key, index);
+    }
+
+    /**
+     * Blocks until all writes are persisted.
+     *
+     * @return true if everything was written successfully
+     */
+    public static boolean flush() {
+        return getStore().flush();
+    }
+
+    /**
+     * Changes the password without re-encrypting the values.
+     *
+     * @param newPassword the new password
+     * @return true if the new password was written to persistent storage
+     * @see AesStore#changePassword(String)
+     */
+    public static boolean changePassword(@NonNull String newPassword) {
+        return getStore().changePassword(newPassword);
+    }
+
+    /**
+     * Adds a listener that is called on the main thread.
+     * <p>
+     * Listeners are added to the current store and don't carry over to a new {@code init}.
+     *
+     * @param listener the listener
+     * @see AesStore#addChangeListener(ChangeListener, Executor)
+     */
+    public static void addChangeListener(@NonNull ChangeListener listener) {
+        getStore().addChangeListener(listener);
+    }
+
+    /**
+     * Adds a listener that is called on the executor.
+     *
+     * @param listener the listener
+     * @param executor the executor, {@code null} for the main thread
+     * @see AesStore#addChangeListener(ChangeListener, Executor)
+     */
+    public static void addChangeListener(@NonNull ChangeListener listener, @Nullable Executor executor) {
+        getStore().addChangeListener(listener, executor);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener
+     */
+    public static void removeChangeListener(@NonNull ChangeListener listener) {
+        getStore().removeChangeListener(listener);
+    }
+
+    /**
+     * Starts to re-encrypt all entries that aren't in the current format on a background thread.
+     *
+     * @return the migration
+     * @see AesStore#startMigration()
+     */
+    @NonNull
+    public static AesMigration startMigration() {
+        return getStore().startMigration();
+    }
+
+    /**
+     * Opens a stream that encrypts a blob for the key into a side file.
+     *
+     * @param key the key
+     * @return the output stream, must be closed
+     * @throws IOException if the blob file can't be created
+     * @see AesStore#openBlobOutput(String)
+     */
+    @NonNull
+    public static OutputStream openBlobOutput(@NonNull String key) throws IOException {
+        return getStore().openBlobOutput(key);
+    }
+
+    /**
+     * Opens a stream that decrypts the blob of the key.
+     *
+     * @param key the key
+     * @return the input stream, or {@code null} if there is no blob for the key
+     * @throws IOException if the blob can't be opened
+     * @see AesStore#openBlobInput(String)
+     */
+    @Nullable
+    public static InputStream openBlobInput(@NonNull String key) throws IOException {
+        return getStore().openBlobInput(key);
+    }
+
+    /**
+     * Checks whether a blob exists for the key.
+     *
+     * @param key the key
+     * @return true if a blob exists
+     */
+    public static boolean hasBlob(@NonNull String key) {
+        return getStore().hasBlob(key);
+    }
+
+    /**
+     * Removes the blob of the key.
+     *
+     * @param key the key
+     * @return true if a blob was removed
+     */
+    public static boolean removeBlob(@NonNull String key) {
+        return getStore().removeBlob(key);
     }
 
     /**
      * Gets execution time.
      *
-     * @return the execution time
+     * @return the execution time in milliseconds
+     * @deprecated use {@link #getMetrics()} for latencies per operation and stage
      */
+    @Deprecated
     public static long getExecutionTime() {
-        return mExecutionTime;
+        return mStore == null ? 0 : mStore.getExecutionTime();
+    }
+
+    /**
+     * Gets metrics.
+     *
+     * @return the metrics of the default store
+     * @see AesStore#getMetrics()
+     */
+    @NonNull
+    public static AesMetrics getMetrics() {
+        return getStore().getMetrics();
     }
 
     /**
@@ -528,7 +950,7 @@ public class AesPrefs {
      * @return the installed
      */
     public static Long getInstalled() {
-        return getLong(AesSetup.INST_DATE.toString(), -1L);
+        return getStore().getInstalled();
     }
 
     /**
@@ -537,7 +959,7 @@ public class AesPrefs {
      * @return the executions
      */
     public static Long getExecutions() {
-        return getLong(AesSetup.INST_DATE.toString(), -1L);
+        return getStore().getExecutions();
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,3061 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pepperonas.aesprefs;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Base64;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.pepperonas.aesprefs.AesMetrics.Operation;
+import com.pepperonas.aesprefs.AesMetrics.Stage;
+import com.pepperonas.aesprefs.AesPrefs.AesSetup;
+import com.pepperonas.aesprefs.AesPrefs.InitCallback;
+import com.pepperonas.aesprefs.AesPrefs.LogMode;
+import com.pepperonas.aesprefs.Crypt.CryptSet;
+import com.pepperonas.aesprefs.Crypt.KeySet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An encrypted preferences file with its own key, cache and statistics.
+ * <p>
+ * Stores are created with a {@link Builder}. Several stores can be open at the same time, e.g.
+ * one for user data and one for tokens. {@link AesPrefs} is a static facade over a default store.
+ * <p>
+ * A store is safe to use from many threads. Reads don't lock. Writes lock the key, using one of
+ * {@value #LOCK_STRIPES} locks picked by the hash of the key, so writes to the same key are
+ * serialised while writes to other keys mostly run in parallel. An {@link AesEditor} locks all of
+ * its keys at once, list operations lock the entries of the list. {@link #putIfAbsent(String, Object)}
+ * and {@link #compareAndSet(String, Object, Object)} check and write under the lock of the key.
+ * <p>
+ * The store keeps entries of its own next to the values: the key material ({@code sr},
+ * {@code sri}, {@code srk}, their numbered slots and {@code srs}), {@code .migration},
+ * {@code .prefetch} and the {@code _list} and {@code _chunk} entries of lists. Puts, removals and
+ * imports of these keys fail with an {@link IllegalArgumentException}.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class AesStore {
+
+    private static final String TAIL = "=";
+
+    /**
+     * The checkpoint of a running {@link AesMigration}.
+     */
+    static final String MIGRATION_KEY = ".migration";
+
+    /**
+     * The keys read during the last startup, prefetched on the next one.
+     */
+    static final String PREFETCH_KEY = ".prefetch";
+
+    /**
+     * At most this many startup reads are recorded.
+     */
+    private static final int MAX_STARTUP_READS = 256;
+
+    /**
+     * The salt of the key derived from the password.
+     */
+    static final String SALT_KEY = "sr";
+
+    /**
+     * The PBKDF2 iteration count, stored in clear next to the salt. Stores without it were
+     * derived with {@link Crypt#DERIVATION_ITERATION_COUNT}.
+     */
+    static final String ITERATIONS_KEY = "sri";
+
+    /**
+     * The random data key the values are encrypted with, wrapped by the key derived from the
+     * password. Changing the password only wraps it again.
+     */
+    static final String DATA_KEY_KEY = "srk";
+
+    /**
+     * The slot that holds the current salt, iteration count and wrapped key, stored in clear.
+     * Slot {@code n} stores them as {@code sr.n}, {@code sri.n} and {@code srk.n}. Stores without
+     * it use slot 0, the plain names. A new password is written to the next slot, which becomes
+     * current by rewriting this single entry, so a crash can't mix the old and the new key
+     * material whatever the backend does with a torn batch.
+     */
+    static final String KEY_SLOT_KEY = "srs";
+
+    /**
+     * Bytes of the SHA-256 of the data key that are wrapped with it, to tell a wrong password
+     * from a corrupted value.
+     */
+    private static final int KEY_CHECK_LENGTH = 8;
+
+    /**
+     * Returned by {@link #read(String, Operation)} for keys without a readable value.
+     */
+    private static final Object ABSENT = new Object();
+
+    /**
+     * Constants
+     */
+    private static final String TAG = "AesStore";
+
+    /**
+     * Values up to this size are decrypted into a buffer of the calling thread instead of a new
+     * array, which covers all primitives and short strings.
+     */
+    private static final int MAX_REUSED_PLAIN = 256;
+
+    private static final ThreadLocal<byte[]> PLAIN = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[32];
+        }
+    };
+
+    /**
+     * Shared by all stores, so that several stores can be opened in parallel.
+     */
+    private static ExecutorService mInitExecutor;
+
+    /**
+     * Decrypts bulk reads in parallel. A plain pool instead of a ForkJoinPool, which is not
+     * available before API 21.
+     */
+    private static ExecutorService mBulkExecutor;
+
+    private static final int BULK_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Below this many keys per thread a bulk read is decrypted on the calling thread.
+     */
+    private static final int BULK_MIN_SLICE = 16;
+
+    /**
+     * Temporary blob files older than this are left over by a writer that died before closing.
+     */
+    private static final long STALE_BLOB_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Writes the counters and dispatches the changes of all stores.
+     */
+    private static ScheduledExecutorService mScheduler;
+
+    /**
+     * Runs the migrations of all stores, one at a time.
+     */
+    private static ExecutorService mMigrationExecutor;
+
+    /**
+     * Number of write locks, a power of two.
+     */
+    static final int LOCK_STRIPES = 32;
+
+    /**
+     * Member
+     */
+    private final StorageBackend mStorage;
+
+    private final String mFilename;
+
+    private final AesMetrics mMetrics = new AesMetrics();
+    private volatile SecretKey mKey;
+
+    private volatile LruCache<String, Object> mCache;
+
+    private volatile Future<Void> mInit;
+
+    private volatile LogMode mLog;
+
+    private final CipherSuite mSuite;
+
+    private final File mBlobDir;
+
+    private final ReentrantLock[] mLocks = new ReentrantLock[LOCK_STRIPES];
+
+    /**
+     * Write count per lock, so that a read doesn't put a value into the cache that a write has
+     * replaced while it was decrypted.
+     */
+    private final AtomicIntegerArray mVersions = new AtomicIntegerArray(LOCK_STRIPES);
+
+    /**
+     * Live values of the counters, ahead of the stored ones until they are written.
+     */
+    private final Map<String, AtomicLong> mCounters = new ConcurrentHashMap<>();
+
+    private final Map<String, Boolean> mDirtyCounters = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean mCountersScheduled = new AtomicBoolean();
+
+    private final long mCounterInterval;
+
+    private final long mKeyDerivationMillis;
+
+    private final long mChangeWindow;
+
+    private final int mCompressionThreshold;
+
+    private volatile ChangeRegistration[] mChangeListeners = new ChangeRegistration[0];
+
+    /**
+     * Keys changed since the last dispatch, mapped to whether the key is a list.
+     */
+    private final Map<String, Boolean> mChangedKeys = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean mChangesScheduled = new AtomicBoolean();
+
+    private final List<String> mPrefetchKeys;
+
+    private final List<String> mPrefetchPrefixes;
+
+    private final long mStartupWindow;
+
+    /**
+     * Keys read by the getters until the startup window is over, {@code null} afterwards.
+     */
+    private volatile Set<String> mStartupReads;
+
+    /**
+     * The startup reads recorded by the last start, to skip writing them again unchanged.
+     * Guarded by the lock of {@link #PREFETCH_KEY}.
+     */
+    private Set<String> mRecordedReads;
+
+    private volatile int mIterations;
+
+    private volatile int mKeySlot;
+
+    private AesMigration mMigration;
+
+    /**
+     * The type Builder.
+     */
+    public static class Builder {
+
+        private final Context context;
+        private StorageBackend storage;
+        private String filename = ".aesconfig";
+        private String password;
+        private LogMode logMode = LogMode.NONE;
+        private int cacheSize = 0;
+        private CipherSuite cipherSuite;
+        private File blobDirectory;
+        private long counterInterval = 1000;
+        private long keyDerivationMillis = 0;
+        private long changeWindow = 100;
+        private int compressionThreshold = 0;
+        private final List<String> prefetchKeys = new ArrayList<>();
+        private final List<String> prefetchPrefixes = new ArrayList<>();
+        private long startupWindow = 0;
+
+        /**
+         * Instantiates a new Builder.
+         *
+         * @param context the context
+         */
+        public Builder(@NonNull Context context) {
+            this.context = context.getApplicationContext();
+        }
+
+        /**
+         * Instantiates a new Builder for a store without a context, e.g. on the plain JVM.
+         *
+         * @param storage the storage backend
+         */
+        public Builder(@NonNull StorageBackend storage) {
+            this.context = null;
+            this.storage = storage;
+        }
+
+        /**
+         * Storage builder.
+         * <p>
+         * Defaults to a {@link SharedPreferencesBackend} on the {@link #filename(String)}.
+         *
+         * @param storage the storage backend
+         * @return the builder
+         */
+        public Builder storage(@NonNull StorageBackend storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        /**
+         * Filename builder.
+         *
+         * @param filename the filename of the preferences file
+         * @return the builder
+         */
+        public Builder filename(@NonNull String filename) {
+            this.filename = filename;
+            return this;
+        }
+
+        /**
+         * Password builder.
+         *
+         * @param password the password
+         * @return the builder
+         */
+        public Builder password(@NonNull String password) {
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Log mode builder.
+         *
+         * @param logMode the log mode
+         * @return the builder
+         */
+        public Builder logMode(@Nullable LogMode logMode) {
+            this.logMode = logMode == null ? LogMode.NONE : logMode;
+            return this;
+        }
+
+        /**
+         * Cache size builder.
+         *
+         * @param maxEntries the maximum number of cached values, {@code 0} disables the cache
+         * @return the builder
+         */
+        public Builder cacheSize(int maxEntries) {
+            this.cacheSize = maxEntries;
+            return this;
+        }
+
+        /**
+         * Cipher suite builder.
+         * <p>
+         * Defaults to {@link CipherSuite#AES_GCM} on API 19 and above, {@link CipherSuite#AES_CBC}
+         * below. Values written with another suite stay readable.
+         *
+         * @param cipherSuite the cipher suite for new values
+         * @return the builder
+         */
+        public Builder cipherSuite(@NonNull CipherSuite cipherSuite) {
+            this.cipherSuite = cipherSuite;
+            return this;
+        }
+
+        /**
+         * Blob directory builder.
+         * <p>
+         * Defaults to {@code aesblobs/<filename>} in the files directory of the context.
+         *
+         * @param blobDirectory the directory the encrypted blobs are written to
+         * @return the builder
+         * @see AesStore#openBlobOutput(String)
+         */
+        public Builder blobDirectory(@NonNull File blobDirectory) {
+            this.blobDirectory = blobDirectory;
+            return this;
+        }
+
+        /**
+         * Key derivation time builder.
+         * <p>
+         * A new store measures the speed of PBKDF2 on the device and picks the iteration count
+         * that derives the key in about this time, see {@link Crypt#calibrateIterationCount(long)}.
+         * The count is stored next to the salt, an existing store always derives with its stored
+         * count. Defaults to {@code 0}, which uses {@link Crypt#DERIVATION_ITERATION_COUNT}.
+         *
+         * @param targetMillis the target time in milliseconds, {@code 0} to disable the calibration
+         * @return the builder
+         */
+        public Builder keyDerivationTime(long targetMillis) {
+            if (targetMillis < 0) {
+                throw new IllegalArgumentException("targetMillis < 0");
+            }
+            this.keyDerivationMillis = targetMillis;
+            return this;
+        }
+
+        /**
+         * Prefetch builder.
+         * <p>
+         * The values of the keys are decrypted into the cache on a background thread as soon as
+         * the init is done, so the first reads on the startup path are cache hits. Needs the
+         * cache, see {@link #cacheSize(int)}.
+         *
+         * @param keys the keys
+         * @return the builder
+         */
+        public Builder prefetch(@NonNull String... keys) {
+            prefetchKeys.addAll(Arrays.asList(keys));
+            return this;
+        }
+
+        /**
+         * Prefetch prefix builder.
+         * <p>
+         * Like {@link #prefetch(String...)} for all keys that start with one of the prefixes.
+         *
+         * @param prefixes the key prefixes
+         * @return the builder
+         */
+        public Builder prefetchPrefix(@NonNull String... prefixes) {
+            prefetchPrefixes.addAll(Arrays.asList(prefixes));
+            return this;
+        }
+
+        /**
+         * Startup reads builder.
+         * <p>
+         * Records the keys read from the build until the window after the init is over, and
+         * prefetches them on the next start together with the keys of
+         * {@link #prefetch(String...)}. Keys that are no longer read at startup drop out of the
+         * recording. Defaults to {@code 0}, which records nothing.
+         *
+         * @param windowMillis the window after the init in milliseconds
+         * @return the builder
+         */
+        public Builder recordStartupReads(long windowMillis) {
+            if (windowMillis < 0) {
+                throw new IllegalArgumentException("windowMillis < 0");
+            }
+            this.startupWindow = windowMillis;
+            return this;
+        }
+
+        /**
+         * Compression threshold builder.
+         * <p>
+         * Values whose encoding has at least this many bytes are deflated before they are
+         * encrypted, if that makes them smaller. Smaller values are written as before. Compressed
+         * values are read regardless of this setting. Defaults to {@code 0}, which compresses
+         * nothing.
+         *
+         * @param minBytes the minimum size in bytes, {@code 0} to disable the compression
+         * @return the builder
+         */
+        public Builder compressionThreshold(int minBytes) {
+            if (minBytes < 0) {
+                throw new IllegalArgumentException("minBytes < 0");
+            }
+            this.compressionThreshold = minBytes;
+            return this;
+        }
+
+        /**
+         * Change window builder.
+         * <p>
+         * Changes of a key within the window are reported to the {@link ChangeListener}s once.
+         * Defaults to 100 milliseconds.
+         *
+         * @param windowMillis the window in milliseconds, {@code 0} reports as soon as possible
+         * @return the builder
+         */
+        public Builder changeWindow(long windowMillis) {
+            if (windowMillis < 0) {
+                throw new IllegalArgumentException("windowMillis < 0");
+            }
+            this.changeWindow = windowMillis;
+            return this;
+        }
+
+        /**
+         * Counter interval builder.
+         * <p>
+         * Counters changed by {@link AesStore#incrementAndGet(String, long)} are written at most
+         * once per interval. Defaults to one second.
+         *
+         * @param intervalMillis the interval in milliseconds, {@code 0} writes every increment
+         * @return the builder
+         */
+        public Builder counterInterval(long intervalMillis) {
+            if (intervalMillis < 0) {
+                throw new IllegalArgumentException("intervalMillis < 0");
+            }
+            this.counterInterval = intervalMillis;
+            return this;
+        }
+
+        /**
+         * Derives the key on the calling thread and returns the ready store.
+         * <p>
+         * It's time-consuming! See {@link Crypt#getSecretKey(String, byte[])}.
+         *
+         * @return the aes store
+         * @throws IllegalStateException if the password doesn't match the one the store was created
+         *                               with
+         */
+        public AesStore build() {
+            AesStore store = create();
+            store.init(password);
+            return store;
+        }
+
+        /**
+         * Returns the store at once and derives the key on a background thread.
+         * <p>
+         * Any get or put made before the init is done waits for it. If the password is wrong, the
+         * {@link AesStore#getInitFuture() init future} fails and every later get or put throws an
+         * {@link IllegalStateException}.
+         *
+         * @param callback the callback, may be {@code null}
+         * @return the aes store
+         */
+        public AesStore buildAsync(@Nullable InitCallback callback) {
+            AesStore store = create();
+            store.initAsync(password, callback);
+            return store;
+        }
+
+        private AesStore create() {
+            if (password == null) {
+                throw new IllegalStateException("No password set");
+            }
+            if (cipherSuite == null) {
+                cipherSuite = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                        ? CipherSuite.AES_GCM : CipherSuite.AES_CBC;
+            }
+            if (storage == null) {
+                storage = new SharedPreferencesBackend(context, filename);
+            }
+            if (blobDirectory == null && context != null) {
+                blobDirectory = new File(context.getFilesDir(), "aesblobs/" + filename);
+            }
+            return new AesStore(this);
+        }
+    }
+
+    private AesStore(Builder builder) {
+        mStorage = builder.storage;
+        mFilename = builder.filename;
+        mLog = builder.logMode;
+        mSuite = builder.cipherSuite;
+        mBlobDir = builder.blobDirectory;
+        mCounterInterval = builder.counterInterval;
+        mKeyDerivationMillis = builder.keyDerivationMillis;
+        mChangeWindow = builder.changeWindow;
+        mCompressionThreshold = builder.compressionThreshold;
+        mPrefetchKeys = new ArrayList<>(builder.prefetchKeys);
+        mPrefetchPrefixes = new ArrayList<>(builder.prefetchPrefixes);
+        mStartupWindow = builder.startupWindow;
+        if (mStartupWindow > 0) {
+            mStartupReads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mLocks[i] = new ReentrantLock();
+        }
+        if (builder.cacheSize > 0) {
+            mCache = new LruCache<>(builder.cacheSize);
+        }
+    }
+
+    private void init(@NonNull String password) {
+        if (mLog != LogMode.NONE) {
+            Log.i(TAG, "Initializing " + mFilename + "...");
+        }
+
+        long start = System.nanoTime();
+        try {
+            long t = System.nanoTime();
+            String mSlot = mStorage.read(KEY_SLOT_KEY);
+            mKeySlot = mSlot == null ? 0 : Integer.parseInt(mSlot);
+            String mSecRand = mStorage.read(slotKey(SALT_KEY, mKeySlot));
+            String mIterationCount = mStorage.read(slotKey(ITERATIONS_KEY, mKeySlot));
+            String mWrapped = mStorage.read(slotKey(DATA_KEY_KEY, mKeySlot));
+            mMetrics.record(Operation.INIT, Stage.STORAGE_READ, System.nanoTime() - t);
+            KeySet mKs;
+            if (mSecRand == null) {
+                mIterations = mKeyDerivationMillis > 0
+                        ? Crypt.calibrateIterationCount(mKeyDerivationMillis)
+                        : Crypt.DERIVATION_ITERATION_COUNT;
+                t = System.nanoTime();
+                mKs = Crypt.getSecretKey(password, null, mIterations);
+                mMetrics.record(Operation.INIT, Stage.KEY_DERIVATION, System.nanoTime() - t);
+                mKey = Crypt.generateKey();
+                // a store without a slot has no values yet, a torn write is started over
+                if (!writeKeySlot(mStorage.edit(), 1, mKs)) {
+                    throw new IllegalStateException("Failed to write the key of " + mFilename);
+                }
+                if (mLog != LogMode.NONE) {
+                    Log.i(TAG, "Deriving " + mFilename + " with " + mIterations + " iterations");
+                }
+            } else {
+                mIterations = mIterationCount == null
+                        ? Crypt.DERIVATION_ITERATION_COUNT : Integer.parseInt(mIterationCount);
+                t = System.nanoTime();
+                mKs = Crypt.getSecretKey(password, Base64.decode(mSecRand, Base64.DEFAULT), mIterations);
+                mMetrics.record(Operation.INIT, Stage.KEY_DERIVATION, System.nanoTime() - t);
+                if (mWrapped == null) {
+                    // values were encrypted with the derived key itself, it becomes the data key
+                    mKey = mKs.getSecretKey();
+                    if (decryptsStoredValue()) {
+                        mStorage.edit()
+                                .put(slotKey(DATA_KEY_KEY, mKeySlot), wrap(mKs.getSecretKey(), mKey))
+                                .commit();
+                    } else if (mLog != LogMode.NONE) {
+                        Log.w(TAG, "Not wrapping the key of " + mFilename + ", the password may be wrong");
+                    }
+                } else {
+                    mKey = unwrap(mKs.getSecretKey(), mWrapped);
+                }
+            }
+            sweepBlobs();
+            warmUp();
+        } catch (RuntimeException e) {
+            mMetrics.error(Operation.INIT, e);
+            throw e;
+        } finally {
+            mMetrics.record(Operation.INIT, Stage.TOTAL, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Starts the prefetch and ends the recording of the startup reads after the window.
+     */
+    private void warmUp() {
+        if (mStartupReads != null) {
+            scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    saveStartupReads();
+                }
+            }, mStartupWindow, TimeUnit.MILLISECONDS);
+        }
+        if (mCache == null || mPrefetchKeys.isEmpty() && mPrefetchPrefixes.isEmpty() && mStartupReads == null) {
+            return;
+        }
+        initExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prefetch();
+                } catch (RuntimeException e) {
+                    // only the cache is affected, the reads decrypt on their own
+                    Log.w(TAG, "Prefetch of " + mFilename + " failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Decrypts the configured keys and the recorded startup reads into the cache, up to its size.
+     */
+    private void prefetch() {
+        LruCache<String, Object> cache = mCache;
+        if (cache == null) {
+            return;
+        }
+        int[] versions = versions();
+        long t = System.nanoTime();
+        Map<String, String> snapshot = mStorage.readAll();
+        mMetrics.record(Operation.BULK, Stage.STORAGE_READ, System.nanoTime() - t);
+
+        Set<String> keys = new LinkedHashSet<>(mPrefetchKeys);
+        String recorded = snapshot.get(PREFETCH_KEY);
+        if (recorded != null) {
+            try {
+                Object reads = decrypt(PREFETCH_KEY, Record.decode(toByte(recorded)), Operation.BULK);
+                if (reads instanceof Set) {
+                    @SuppressWarnings("unchecked")
+                    Set<String> readKeys = (Set<String>) reads;
+                    keys.addAll(readKeys);
+                    ReentrantLock lock = lock(PREFETCH_KEY);
+                    try {
+                        // the reads of this start may be saved already
+                        if (mRecordedReads == null) {
+                            mRecordedReads = readKeys;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (RuntimeException e) {
+                mMetrics.error(Operation.BULK, e);
+            }
+        }
+        if (!mPrefetchPrefixes.isEmpty()) {
+            for (String key : snapshot.keySet()) {
+                if (isInternal(key) || key.endsWith(TAIL) && snapshot.containsKey(key.substring(0, key.length() - 1))) {
+                    continue;
+                }
+                for (String prefix : mPrefetchPrefixes) {
+                    if (key.startsWith(prefix)) {
+                        keys.add(key);
+                        break;
+                    }
+                }
+            }
+        }
+
+        List<String> stored = new ArrayList<>(Math.min(keys.size(), cache.maxSize()));
+        for (String key : keys) {
+            if (stored.size() == cache.maxSize()) {
+                break;
+            }
+            if (snapshot.containsKey(key) && !isInternal(key)) {
+                stored.add(key);
+            }
+        }
+        BulkResult result = decryptAll(stored, snapshot, versions);
+        if (mLog != LogMode.NONE) {
+            Log.i(TAG, "Prefetched " + result.getValues().size() + " values of " + mFilename);
+        }
+    }
+
+    /**
+     * Ends the recording and stores the keys read during the startup if they changed.
+     */
+    private void saveStartupReads() {
+        Set<String> reads = mStartupReads;
+        mStartupReads = null;
+        if (reads == null) {
+            return;
+        }
+        Set<String> recorded = new HashSet<>(reads);
+        ReentrantLock lock = lock(PREFETCH_KEY);
+        try {
+            if (recorded.equals(mRecordedReads)) {
+                return;
+            }
+            StorageBackend.Batch batch = mStorage.edit();
+            write(batch, PREFETCH_KEY, recorded, Operation.PUT);
+            batch.apply();
+            mRecordedReads = recorded;
+        } finally {
+            lock.unlock();
+        }
+        if (mLog != LogMode.NONE) {
+            Log.i(TAG, "Recorded " + recorded.size() + " startup reads of " + mFilename);
+        }
+    }
+
+    /**
+     * Writes the key material to a slot with the batch, then makes the slot current.
+     *
+     * @return true if the slot is current
+     */
+    private boolean writeKeySlot(StorageBackend.Batch batch, int slot, KeySet ks) {
+        boolean written = batch
+                .put(slotKey(SALT_KEY, slot), Base64.encodeToString(ks.getSalt(), Base64.DEFAULT))
+                .put(slotKey(ITERATIONS_KEY, slot), String.valueOf(mIterations))
+                .put(slotKey(DATA_KEY_KEY, slot), wrap(ks.getSecretKey(), mKey))
+                .commit();
+        if (!written || !mStorage.edit().put(KEY_SLOT_KEY, String.valueOf(slot)).commit()) {
+            return false;
+        }
+        mKeySlot = slot;
+        return true;
+    }
+
+    private static void removeKeySlot(StorageBackend.Batch batch, int slot) {
+        batch.remove(slotKey(SALT_KEY, slot))
+                .remove(slotKey(ITERATIONS_KEY, slot))
+                .remove(slotKey(DATA_KEY_KEY, slot));
+    }
+
+    private static String slotKey(String name, int slot) {
+        return slot == 0 ? name : name + "." + slot;
+    }
+
+    /**
+     * Checks whether a key is the slot or an entry of the key material of any slot.
+     */
+    private static boolean isKeyMaterial(String key) {
+        if (key.equals(KEY_SLOT_KEY)) {
+            return true;
+        }
+        int dot = key.indexOf('.');
+        String name = dot < 0 ? key : key.substring(0, dot);
+        if (!name.equals(SALT_KEY) && !name.equals(ITERATIONS_KEY) && !name.equals(DATA_KEY_KEY)) {
+            return false;
+        }
+        for (int i = dot + 1; dot >= 0 && i < key.length(); i++) {
+            if (key.charAt(i) < '0' || key.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return dot < 0 || dot + 1 < key.length();
+    }
+
+    /**
+     * Encrypts the data key, followed by its check bytes, with the key derived from a password.
+     */
+    private String wrap(SecretKey passwordKey, SecretKey dataKey) {
+        byte[] raw = dataKey.getEncoded();
+        byte[] plain = Arrays.copyOf(raw, raw.length + KEY_CHECK_LENGTH);
+        System.arraycopy(keyCheck(raw), 0, plain, raw.length, KEY_CHECK_LENGTH);
+        try {
+            CryptSet cs = Crypt.enc(mSuite, passwordKey, plain, Record.aad(mSuite, (byte) 0, DATA_KEY_KEY));
+            return toB32(new Record(Record.VERSION_3, mSuite, (byte) 0, cs).encode());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to wrap the key of " + mFilename, e);
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+    }
+
+    /**
+     * Decrypts the data key.
+     *
+     * @throws IllegalStateException if the password is wrong
+     */
+    private SecretKey unwrap(SecretKey passwordKey, String wrapped) {
+        byte[] plain;
+        int plainLength;
+        try {
+            Record record = Record.decode(toByte(wrapped));
+            plain = new byte[record.getEncrypted().length];
+            plainLength = Crypt.dec(record.getSuite(), passwordKey, record.getIv(), record.getEncrypted(),
+                    record.aad(DATA_KEY_KEY), plain);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IllegalStateException("Wrong password for " + mFilename, e);
+        }
+        try {
+            int length = plainLength - KEY_CHECK_LENGTH;
+            if (length <= 0 || !Arrays.equals(keyCheck(Arrays.copyOf(plain, length)),
+                    Arrays.copyOfRange(plain, length, plainLength))) {
+                throw new IllegalStateException("Wrong password for " + mFilename);
+            }
+            return new SecretKeySpec(plain, 0, length, "AES");
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+    }
+
+    /**
+     * Checks the key against a few stored values before it is wrapped for good, so that a store
+     * of the old format opened once with a wrong password doesn't keep the wrong key.
+     *
+     * @return true if a value could be decrypted or nothing is stored yet
+     */
+    private boolean decryptsStoredValue() {
+        Set<String> keys = mStorage.keys();
+        int tried = 0;
+        for (String key : keys) {
+            if (isInternal(key) || key.endsWith(TAIL) && keys.contains(key.substring(0, key.length() - 1))) {
+                continue;
+            }
+            try {
+                String stored = mStorage.read(key);
+                String iv = mStorage.read(key + TAIL);
+                Record record = iv != null
+                        ? new Record(Record.VERSION_1, new CryptSet(toByte(stored), toByte(iv)))
+                        : Record.decode(toByte(stored));
+                decrypt(key, record, Operation.INIT);
+                return true;
+            } catch (Exception e) {
+                if (++tried == 3) {
+                    return false;
+                }
+            }
+        }
+        return tried == 0;
+    }
+
+    private static byte[] keyCheck(byte[] key) {
+        try {
+            return Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(key), KEY_CHECK_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Changes the password.
+     * <p>
+     * Values are encrypted with a random data key, so only that key is encrypted again with the
+     * new password; no value is touched. Costs one key derivation.
+     *
+     * @param newPassword the new password
+     * @return true if the new password was written to persistent storage
+     */
+    public synchronized boolean changePassword(@NonNull String newPassword) {
+        awaitReady();
+        long start = System.nanoTime();
+        try {
+            long t = System.nanoTime();
+            KeySet ks = Crypt.getSecretKey(newPassword, null, mIterations);
+            mMetrics.record(Operation.INIT, Stage.KEY_DERIVATION, System.nanoTime() - t);
+            int old = mKeySlot;
+            StorageBackend.Batch batch = mStorage.edit();
+            if (old > 0) {
+                // left over if a change was interrupted after the switch
+                removeKeySlot(batch, old - 1);
+            }
+            if (!writeKeySlot(batch, old + 1, ks)) {
+                return false;
+            }
+            // the old slot is only dropped once the new one is current
+            StorageBackend.Batch cleanup = mStorage.edit();
+            removeKeySlot(cleanup, old);
+            cleanup.commit();
+            return true;
+        } catch (RuntimeException e) {
+            mMetrics.error(Operation.INIT, e);
+            throw e;
+        } finally {
+            mMetrics.record(Operation.INIT, Stage.TOTAL, System.nanoTime() - start);
+        }
+    }
+
+    private void initAsync(@NonNull final String password, @Nullable final InitCallback callback) {
+        final Handler handler = callback == null ? null : new Handler(Looper.getMainLooper());
+        mInit = initExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                init(password);
+                if (handler != null) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onInitialized();
+                        }
+                    });
+                }
+                return null;
+            }
+        });
+    }
+
+    private static synchronized ExecutorService initExecutor() {
+        if (mInitExecutor == null) {
+            mInitExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "AesStore-init");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mInitExecutor;
+    }
+
+    /**
+     * Gets the future of a pending async init.
+     *
+     * @return the future, {@code null} if the store was built synchronously
+     */
+    @Nullable
+    public Future<Void> getInitFuture() {
+        return mInit;
+    }
+
+    /**
+     * Is ready.
+     *
+     * @return true if no async init is pending
+     */
+    public boolean isReady() {
+        Future<Void> init = mInit;
+        return init == null || init.isDone();
+    }
+
+    /**
+     * Blocks until a pending async init is done.
+     */
+    void awaitReady() {
+        Future<Void> init = mInit;
+        if (init == null || init.isDone() && mKey != null) {
+            return;
+        }
+        try {
+            init.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + mFilename, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Init of " + mFilename + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Gets the PBKDF2 iteration count the key was derived with.
+     *
+     * @return the iteration count, {@code 0} before the init is done
+     */
+    public int getIterations() {
+        return mIterations;
+    }
+
+    /**
+     * Gets filename.
+     *
+     * @return the filename
+     */
+    public String getFilename() {
+        return mFilename;
+    }
+
+    /**
+     * Gets cipher suite.
+     *
+     * @return the cipher suite used for new values
+     */
+    public CipherSuite getCipherSuite() {
+        return mSuite;
+    }
+
+    /**
+     * Log mode.
+     *
+     * @param logMode the log mode
+     */
+    public void logMode(@NonNull LogMode logMode) {
+        mLog = logMode;
+    }
+
+    /**
+     * Enables the in-memory cache of decrypted values.
+     * <p>
+     * Repeated reads of the same key are served from memory instead of running another decrypt.
+     * The cache holds at most {@code maxEntries} values and evicts the least recently used one.
+     *
+     * @param maxEntries the maximum number of cached values
+     */
+    public synchronized void enableCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries <= 0");
+        }
+        if (mCache == null) {
+            mCache = new LruCache<>(maxEntries);
+        } else {
+            mCache.resize(maxEntries);
+        }
+    }
+
+    /**
+     * Disables the cache and drops all cached values.
+     */
+    public synchronized void disableCache() {
+        if (mCache != null) {
+            mCache.evictAll();
+        }
+        mCache = null;
+    }
+
+    /**
+     * Gets the number of reads served from the cache.
+     *
+     * @return the cache hits
+     */
+    public int getCacheHits() {
+        LruCache<String, Object> cache = mCache;
+        return cache == null ? 0 : cache.hitCount();
+    }
+
+    /**
+     * Gets the number of reads that had to be decrypted.
+     *
+     * @return the cache misses
+     */
+    public int getCacheMisses() {
+        LruCache<String, Object> cache = mCache;
+        return cache == null ? 0 : cache.missCount();
+    }
+
+    private static String toB32(byte[] bytes) {
+        return Base64.encodeToString(bytes, Base64.NO_WRAP);
+    }
+
+    private static byte[] toByte(String string) {
+        return Base64.decode(string, Base64.DEFAULT);
+    }
+
+    /**
+     * Put.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void put(@NonNull String key, @Nullable String value) {
+        putValue(key, value);
+    }
+
+    private void putValue(@NonNull String key, @Nullable Object value) {
+        checkKey(key);
+        awaitReady();
+        long start = System.nanoTime();
+
+        ReentrantLock lock = lock(key);
+        try {
+            StorageBackend.Batch batch = mStorage.edit();
+            write(batch, key, value, Operation.PUT);
+            long t = System.nanoTime();
+            batch.apply();
+            mMetrics.record(Operation.PUT, Stage.STORAGE_WRITE, System.nanoTime() - t);
+            updateCache(key, value);
+        } finally {
+            lock.unlock();
+        }
+        changed(key);
+
+        if (isLogging(LogMode.SET)) {
+            Log.d(TAG, "put " + key + " <- " + value);
+        }
+
+        mMetrics.record(Operation.PUT, Stage.TOTAL, System.nanoTime() - start);
+    }
+
+    /**
+     * Puts the value if the key is not stored yet, as one atomic operation.
+     * <p>
+     * A value that can't be decrypted counts as not stored and is replaced.
+     *
+     * @param key   the key
+     * @param value a {@link String}, {@link Integer}, {@link Long}, {@link Float}, {@link Double},
+     *              {@link Boolean} or {@code null}
+     * @return true if the value was put
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    public boolean putIfAbsent(@NonNull String key, @Nullable Object value) {
+        awaitReady();
+        ReentrantLock lock = lock(key);
+        try {
+            if (read(key, Operation.GET) != ABSENT) {
+                return false;
+            }
+            putValue(key, value);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts the new value if the stored value equals the expected one, as one atomic operation.
+     * <p>
+     * A key that is not stored matches an expected {@code null}. Values written as strings by old
+     * versions are parsed to the type of the expected value.
+     *
+     * @param key    the key
+     * @param expect the expected value
+     * @param update the new value, a {@link String}, {@link Integer}, {@link Long}, {@link Float},
+     *               {@link Double}, {@link Boolean} or {@code null}
+     * @return true if the new value was put
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    public boolean compareAndSet(@NonNull String key, @Nullable Object expect, @Nullable Object update) {
+        awaitReady();
+        ReentrantLock lock = lock(key);
+        try {
+            Object current = read(key, Operation.GET);
+            if (current == ABSENT) {
+                current = null;
+            } else if (current instanceof String && expect != null && !(expect instanceof String)) {
+                try {
+                    current = parse(key, (String) current, expect.getClass());
+                } catch (ClassCastException e) {
+                    return false;
+                }
+            }
+            if (current == null ? expect != null : !current.equals(expect)) {
+                return false;
+            }
+            putValue(key, update);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Edit many values at once.
+     * <p>
+     * All values are encrypted when the editor is applied and written with a single
+     * {@link StorageBackend.Batch}.
+     *
+     * @return the aes editor
+     */
+    public AesEditor edit() {
+        return new AesEditor(this, Operation.PUT);
+    }
+
+    StorageBackend storage() {
+        return mStorage;
+    }
+
+    /**
+     * Blocks until all writes are persisted.
+     *
+     * @return true if everything was written successfully
+     * @see StorageBackend#flush()
+     */
+    public boolean flush() {
+        writeCounters();
+        return mStorage.flush();
+    }
+
+    /**
+     * Starts to re-encrypt all entries that aren't in the current format on a background thread.
+     * <p>
+     * Entries written with another {@link CipherSuite} or an older record format are decrypted
+     * and written again with the suite of this store. Calling this again while the migration
+     * runs returns the running one; after a cancel or a restart of the process it continues
+     * from the last checkpoint.
+     *
+     * @return the migration
+     */
+    @NonNull
+    public synchronized AesMigration startMigration() {
+        if (mMigration == null || mMigration.isDone()) {
+            mMigration = new AesMigration(this);
+            mMigration.start(migrationExecutor());
+        }
+        return mMigration;
+    }
+
+    /**
+     * Gets the migration that runs or ran last.
+     *
+     * @return the migration, {@code null} if none was started
+     */
+    @Nullable
+    public synchronized AesMigration getMigration() {
+        return mMigration;
+    }
+
+    /**
+     * Lists the keys of the stored values, without internal entries and the IV entries of the
+     * two-entry format.
+     */
+    List<String> migratableKeys() {
+        Set<String> stored = mStorage.keys();
+        List<String> keys = new ArrayList<>(stored.size());
+        for (String key : stored) {
+            if (isInternal(key) || key.endsWith(TAIL) && stored.contains(key.substring(0, key.length() - 1))) {
+                continue;
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Re-encrypts the entries of one batch that aren't in the current format and writes them
+     * together with the checkpoint.
+     *
+     * @return the number of re-encrypted entries
+     */
+    int reencrypt(List<String> keys, String checkpoint, AesMigration migration) {
+        long start = System.nanoTime();
+        List<ReentrantLock> locks = lock(keys);
+        try {
+            StorageBackend.Batch batch = mStorage.edit();
+            int migrated = 0;
+            for (String key : keys) {
+                // read again under the lock, a write may have replaced the entry meanwhile
+                String stored = mStorage.read(key);
+                if (stored == null) {
+                    continue;
+                }
+                try {
+                    String iv = mStorage.read(key + TAIL);
+                    Record record = iv != null
+                            ? new Record(Record.VERSION_1, new CryptSet(toByte(stored), toByte(iv)))
+                            : Record.decode(toByte(stored));
+                    if (record.getVersion() == Record.VERSION_3 && record.getSuite() == mSuite) {
+                        continue;
+                    }
+                    write(batch, key, decrypt(key, record, Operation.MIGRATE), Operation.MIGRATE);
+                    migrated++;
+                } catch (Exception e) {
+                    mMetrics.error(Operation.MIGRATE, e);
+                    migration.failed(key, e);
+                }
+            }
+            write(batch, MIGRATION_KEY, checkpoint, Operation.MIGRATE);
+            long t = System.nanoTime();
+            batch.commit();
+            mMetrics.record(Operation.MIGRATE, Stage.STORAGE_WRITE, System.nanoTime() - t);
+            return migrated;
+        } finally {
+            unlock(locks);
+            mMetrics.record(Operation.MIGRATE, Stage.TOTAL, System.nanoTime() - start);
+        }
+    }
+
+    private static synchronized ExecutorService migrationExecutor() {
+        if (mMigrationExecutor == null) {
+            mMigrationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "AesStore-migration");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return mMigrationExecutor;
+    }
+
+    /**
+     * Adds to an encrypted counter and returns the new value.
+     * <p>
+     * The live value is kept in memory, so an increment neither encrypts nor writes. Changed
+     * counters are written in one batch once per {@link Builder#counterInterval(long)} and on
+     * {@link #flush()}; increments of the last interval are lost if the process dies before.
+     * Putting or removing the key replaces the counter. The add holds the lock of the key, so it
+     * is never made to a counter that a concurrent put just dropped.
+     *
+     * @param key   the key
+     * @param delta the value to add
+     * @return the new value
+     * @throws ClassCastException if the key holds a value that isn't a number
+     */
+    public long incrementAndGet(@NonNull String key, long delta) {
+        checkKey(key);
+        awaitReady();
+        long value;
+        ReentrantLock lock = lock(key);
+        try {
+            AtomicLong counter = mCounters.get(key);
+            if (counter == null) {
+                counter = loadCounter(key);
+            }
+            value = counter.addAndGet(delta);
+            // marked after the add, so a write that misses the add sees the key dirty again
+            mDirtyCounters.put(key, Boolean.TRUE);
+        } finally {
+            lock.unlock();
+        }
+        changed(key);
+        if (mCounterInterval == 0) {
+            writeCounters();
+        } else if (mCountersScheduled.compareAndSet(false, true)) {
+            scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mCountersScheduled.set(false);
+                    writeCounters();
+                }
+            }, mCounterInterval, TimeUnit.MILLISECONDS);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the stored value into a new counter. The caller holds the lock of the key.
+     */
+    private AtomicLong loadCounter(String key) {
+        Object stored = read(key, Operation.GET);
+        long value;
+        if (stored == ABSENT || stored == null) {
+            value = 0;
+        } else if (stored instanceof Number) {
+            value = ((Number) stored).longValue();
+        } else if (stored instanceof String) {
+            value = parse(key, (String) stored, Long.class);
+        } else {
+            throw new ClassCastException(key + " is stored as " + ValueCodec.typeName(stored)
+                    + ", not as a counter");
+        }
+        AtomicLong counter = new AtomicLong(value);
+        mCounters.put(key, counter);
+        return counter;
+    }
+
+    /**
+     * Writes the changed counters in one batch.
+     */
+    private void writeCounters() {
+        if (mDirtyCounters.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(mDirtyCounters.keySet());
+        List<ReentrantLock> locks = lock(keys);
+        try {
+            long start = System.nanoTime();
+            StorageBackend.Batch batch = mStorage.edit();
+            Long[] values = new Long[keys.size()];
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                mDirtyCounters.remove(key);
+                AtomicLong counter = mCounters.get(key);
+                if (counter != null) {
+                    values[i] = counter.get();
+                    write(batch, key, values[i], Operation.PUT);
+                }
+            }
+            long t = System.nanoTime();
+            batch.apply();
+            mMetrics.record(Operation.PUT, Stage.STORAGE_WRITE, System.nanoTime() - t);
+            for (int i = 0; i < keys.size(); i++) {
+                if (values[i] != null) {
+                    publish(keys.get(i), values[i]);
+                }
+            }
+            if (isLogging(LogMode.SET)) {
+                Log.d(TAG, "wrote " + keys.size() + " counters");
+            }
+            mMetrics.record(Operation.PUT, Stage.TOTAL, System.nanoTime() - start);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (mScheduler == null) {
+            mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "AesStore-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mScheduler;
+    }
+
+    /**
+     * Adds a listener that is called on the main thread.
+     *
+     * @param listener the listener
+     * @see #addChangeListener(ChangeListener, Executor)
+     */
+    public void addChangeListener(@NonNull ChangeListener listener) {
+        addChangeListener(listener, null);
+    }
+
+    /**
+     * Adds a listener for the changes of the values.
+     * <p>
+     * Changes are reported once per logical key, with the new value decrypted lazily. Several
+     * changes of a key within the change window are reported as one. Only writes made through
+     * this store are reported.
+     *
+     * @param listener the listener
+     * @param executor the executor the listener is called on, {@code null} for the main thread
+     */
+    public synchronized void addChangeListener(@NonNull ChangeListener listener, @Nullable Executor executor) {
+        if (executor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            executor = new Executor() {
+                @Override
+                public void execute(@NonNull Runnable command) {
+                    handler.post(command);
+                }
+            };
+        }
+        ChangeRegistration[] registrations = Arrays.copyOf(mChangeListeners, mChangeListeners.length + 1);
+        registrations[registrations.length - 1] = new ChangeRegistration(listener, executor);
+        mChangeListeners = registrations;
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener
+     */
+    public synchronized void removeChangeListener(@NonNull ChangeListener listener) {
+        List<ChangeRegistration> registrations = new ArrayList<>(Arrays.asList(mChangeListeners));
+        for (int i = registrations.size() - 1; i >= 0; i--) {
+            if (registrations.get(i).listener == listener) {
+                registrations.remove(i);
+            }
+        }
+        mChangeListeners = registrations.toArray(new ChangeRegistration[registrations.size()]);
+    }
+
+    /**
+     * Marks a logical key as changed and schedules the dispatch at the end of the window.
+     */
+    void changed(String key) {
+        changed(key, false);
+    }
+
+    private void changed(String key, boolean array) {
+        if (mChangeListeners.length == 0) {
+            return;
+        }
+        mChangedKeys.put(key, array);
+        if (mChangesScheduled.compareAndSet(false, true)) {
+            scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mChangesScheduled.set(false);
+                    dispatchChanges();
+                }
+            }, mChangeWindow, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void dispatchChanges() {
+        List<AesChange> changes = new ArrayList<>(mChangedKeys.size());
+        for (String key : mChangedKeys.keySet()) {
+            // removed before it is reported, so a change after this point is reported again
+            Boolean array = mChangedKeys.remove(key);
+            if (array != null) {
+                changes.add(new AesChange(this, key, array));
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        final List<AesChange> batch = Collections.unmodifiableList(changes);
+        for (final ChangeRegistration registration : mChangeListeners) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    registration.listener.onChanged(batch);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads a value for an {@link AesChange}.
+     */
+    @Nullable
+    Object readChanged(String key) {
+        Object value = read(key, Operation.GET);
+        return value == ABSENT ? null : value;
+    }
+
+    private static class ChangeRegistration {
+
+        final ChangeListener listener;
+        final Executor executor;
+
+        ChangeRegistration(ChangeListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Opens a stream that encrypts a blob for the key into a side file.
+     * <p>
+     * The data is encrypted in frames of 64 KiB, so memory use doesn't grow with the size of the
+     * blob. The old blob of the key is replaced when the stream is closed.
+     *
+     * @param key the key
+     * @return the output stream, must be closed
+     * @throws IOException if the blob file can't be created
+     */
+    @NonNull
+    public OutputStream openBlobOutput(@NonNull String key) throws IOException {
+        awaitReady();
+        File dir = blobDirectory();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        return new BlobOutputStream(blobFile(key), key, mSuite, mKey);
+    }
+
+    /**
+     * Opens a stream that decrypts the blob of the key.
+     * <p>
+     * Reading throws an {@link IOException} if frames of the blob were dropped or reordered, and
+     * with {@link CipherSuite#AES_GCM} also if the blob was tampered with.
+     *
+     * @param key the key
+     * @return the input stream, or {@code null} if there is no blob for the key
+     * @throws IOException if the blob can't be opened
+     */
+    @Nullable
+    public InputStream openBlobInput(@NonNull String key) throws IOException {
+        awaitReady();
+        File file = blobFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        return new BlobInputStream(file, key, mKey);
+    }
+
+    /**
+     * Checks whether a blob exists for the key.
+     *
+     * @param key the key
+     * @return true if a blob exists
+     */
+    public boolean hasBlob(@NonNull String key) {
+        return blobFile(key).isFile();
+    }
+
+    /**
+     * Removes the blob of the key.
+     *
+     * @param key the key
+     * @return true if a blob was removed
+     */
+    public boolean removeBlob(@NonNull String key) {
+        return blobFile(key).delete();
+    }
+
+    /**
+     * Deletes the temporary files of blob writers that never closed their stream.
+     */
+    private void sweepBlobs() {
+        File[] files = mBlobDir == null ? null : mBlobDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long stale = System.currentTimeMillis() - STALE_BLOB_MILLIS;
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp") && file.lastModified() < stale && file.delete()
+                    && mLog != LogMode.NONE) {
+                Log.i(TAG, "Deleted stale blob file " + file.getName());
+            }
+        }
+    }
+
+    private File blobDirectory() {
+        if (mBlobDir == null) {
+            throw new IllegalStateException("No blob directory set");
+        }
+        return mBlobDir;
+    }
+
+    /**
+     * The blob file of a key, named by the SHA-256 of the key so the key isn't stored in clear.
+     */
+    private File blobFile(String key) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(ValueCodec.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder name = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return new File(blobDirectory(), name.toString());
+    }
+
+    /**
+     * Encrypts the typed value into the batch as a single record.
+     */
+    void write(StorageBackend.Batch batch, String key, @Nullable Object value, Operation operation) {
+        // one entry per value, dropping the IV entry of the old two-entry format
+        batch.put(key, encrypt(key, value, operation)).remove(key + TAIL);
+    }
+
+    /**
+     * Encrypts the typed value into an encoded record.
+     */
+    private String encrypt(String key, @Nullable Object value, Operation operation) {
+        byte[] plain = ValueCodec.encode(value);
+        byte flags = 0;
+        long t;
+        if (mCompressionThreshold > 0 && plain.length >= mCompressionThreshold) {
+            t = System.nanoTime();
+            byte[] compressed = Compressor.deflate(plain);
+            mMetrics.record(operation, Stage.COMPRESSION, System.nanoTime() - t);
+            if (compressed != null) {
+                plain = compressed;
+                flags |= Record.FLAG_DEFLATED;
+            }
+        }
+        CryptSet cs;
+        t = System.nanoTime();
+        try {
+            cs = Crypt.enc(mSuite, mKey, plain, Record.aad(mSuite, flags, key));
+        } catch (GeneralSecurityException e) {
+            IllegalStateException error = new IllegalStateException("Failed to encrypt " + key, e);
+            mMetrics.error(operation, error);
+            throw error;
+        }
+        mMetrics.record(operation, Stage.ENCRYPT, System.nanoTime() - t);
+        Record record = new Record(Record.VERSION_3, mSuite, flags, cs);
+        t = System.nanoTime();
+        String encoded = toB32(record.encode());
+        mMetrics.record(operation, Stage.BASE64, System.nanoTime() - t);
+        return encoded;
+    }
+
+    void erase(StorageBackend.Batch batch, String key) {
+        batch.remove(key).remove(key + TAIL);
+    }
+
+    /**
+     * Publishes a written value to the cache and drops the counter of the key. Must be called
+     * with the lock of the key held.
+     */
+    void updateCache(String key, @Nullable Object value) {
+        if (!mCounters.isEmpty()) {
+            mCounters.remove(key);
+            mDirtyCounters.remove(key);
+        }
+        publish(key, value);
+    }
+
+    private void publish(String key, @Nullable Object value) {
+        mVersions.incrementAndGet(stripe(key));
+        LruCache<String, Object> cache = mCache;
+        if (cache != null) {
+            if (value != null) {
+                cache.put(key, value);
+            } else {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Puts a decrypted value into the cache unless the key was written since {@code version} was
+     * taken. Gives up instead of waiting if a write holds the lock.
+     */
+    private void fillCache(LruCache<String, Object> cache, String key, Object value, int version) {
+        int stripe = stripe(key);
+        ReentrantLock lock = mLocks[stripe];
+        if (lock.tryLock()) {
+            try {
+                if (mVersions.get(stripe) == version) {
+                    cache.put(key, value);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    ReentrantLock lock(String key) {
+        ReentrantLock lock = mLocks[stripe(key)];
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * Locks the keys in the order of their locks, so that two batches can't deadlock.
+     *
+     * @return the locks to pass to {@link #unlock(List)}
+     */
+    List<ReentrantLock> lock(Collection<String> keys) {
+        boolean[] stripes = new boolean[LOCK_STRIPES];
+        for (String key : keys) {
+            stripes[stripe(key)] = true;
+        }
+        List<ReentrantLock> locks = new ArrayList<>(Math.min(keys.size(), LOCK_STRIPES));
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            if (stripes[i]) {
+                mLocks[i].lock();
+                locks.add(mLocks[i]);
+            }
+        }
+        return locks;
+    }
+
+    /**
+     * Locks the entries of a list: its header, its chunks, its entries of the old format and the
+     * chunks a write may add. The entries are read without a lock first and read again once
+     * they are locked, until no write of the list came in between.
+     *
+     * @param newChunks the number of chunks the write adds
+     */
+    private List<ReentrantLock> lockArray(String key, int newChunks) {
+        while (true) {
+            Set<String> keys = arrayKeys(key, newChunks);
+            List<ReentrantLock> locks = lock(keys);
+            if (keys.containsAll(arrayKeys(key, newChunks))) {
+                return locks;
+            }
+            unlock(locks);
+        }
+    }
+
+    private Set<String> arrayKeys(String key, int newChunks) {
+        Set<String> keys = new HashSet<>();
+        keys.add(ChunkedList.headerKey(key));
+        ChunkedList list = readList(key);
+        int nextId = 0;
+        if (list != null) {
+            for (int id : list.ids) {
+                keys.add(ChunkedList.chunkKey(key, id));
+            }
+            nextId = list.nextId;
+        }
+        // removed along with any write of the list
+        Integer legacySize;
+        try {
+            legacySize = getInt(key + "_size", null);
+        } catch (ClassCastException e) {
+            legacySize = null;
+        }
+        keys.add(key + "_size");
+        if (legacySize != null) {
+            for (int i = 0; i < legacySize; i++) {
+                keys.add(key + "_" + i);
+            }
+            if (list == null) {
+                // the chunks the list is moved to, with room for an appended element
+                for (int id = 0; id <= legacySize / ChunkedList.CHUNK_CAPACITY; id++) {
+                    keys.add(ChunkedList.chunkKey(key, id));
+                }
+            }
+        }
+        for (int i = 0; i < newChunks; i++) {
+            // appended to the list, or of a list that is stored anew
+            keys.add(ChunkedList.chunkKey(key, nextId + i));
+            keys.add(ChunkedList.chunkKey(key, i));
+        }
+        return keys;
+    }
+
+    void unlock(List<ReentrantLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    boolean isLogging(LogMode logMode) {
+        return mLog == LogMode.ALL || mLog == logMode;
+    }
+
+    AesMetrics metrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Gets metrics.
+     *
+     * @return the latency histograms and error counts of this store
+     */
+    @NonNull
+    public AesMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Get string.
+     * <p>
+     * Values of other types are returned as their string representation.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the string
+     */
+    @Nullable
+    public String get(@NonNull String key, @Nullable String defaultValue) {
+        Object value = read(key, Operation.GET);
+        if (value == ABSENT) {
+            return defaultValue;
+        }
+        return value == null ? null : String.valueOf(value);
+    }
+
+    /**
+     * Reads and decrypts a value. The total time is recorded for {@link Operation#GET} only, list
+     * operations record their own.
+     *
+     * @return the typed value, or {@link #ABSENT} if the key is not stored or can't be decrypted
+     */
+    @Nullable
+    private Object read(@NonNull String key, Operation operation) {
+        awaitReady();
+        long start = System.nanoTime();
+        Set<String> startupReads = mStartupReads;
+        if (startupReads != null && operation == Operation.GET && !isInternal(key)
+                && startupReads.size() < MAX_STARTUP_READS) {
+            startupReads.add(key);
+        }
+        try {
+            if (!mCounters.isEmpty()) {
+                AtomicLong counter = mCounters.get(key);
+                if (counter != null) {
+                    return counter.get();
+                }
+            }
+            LruCache<String, Object> cache = mCache;
+            if (cache != null) {
+                Object cached = cache.get(key);
+                if (cached != null) {
+                    if (isLogging(LogMode.GET)) {
+                        Log.d(TAG, "get  " + key + " -> " + cached + " (cached)");
+                    }
+                    return cached;
+                }
+            }
+
+            int version = mVersions.get(stripe(key));
+            long t = System.nanoTime();
+            String stored = mStorage.read(key);
+            boolean legacy = stored != null && mStorage.contains(key + TAIL);
+            mMetrics.record(operation, Stage.STORAGE_READ, System.nanoTime() - t);
+            if (stored == null) {
+                return ABSENT;
+            }
+
+            try {
+
+                Record record;
+                if (legacy) {
+                    record = migrate(key, stored);
+                } else {
+                    t = System.nanoTime();
+                    byte[] bytes = toByte(stored);
+                    mMetrics.record(operation, Stage.BASE64, System.nanoTime() - t);
+                    record = Record.decode(bytes);
+                }
+                Object de = decrypt(key, record, operation);
+                if (cache != null && de != null) {
+                    fillCache(cache, key, de, version);
+                }
+                if (isLogging(LogMode.GET)) {
+                    Log.d(TAG, "get  " + key + " -> " + de);
+                }
+                return de;
+            } catch (Exception ex) {
+                mMetrics.error(operation, ex);
+                if (isLogging(LogMode.GET)) {
+                    Log.d(TAG, ex.getMessage());
+                }
+                return ABSENT;
+            }
+        } finally {
+            if (operation == Operation.GET) {
+                mMetrics.record(Operation.GET, Stage.TOTAL, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Decrypts and decodes a record with the suite it was written with.
+     *
+     * @throws IllegalStateException if the record is corrupted or can't be decrypted
+     */
+    @Nullable
+    private Object decrypt(String key, Record record, Operation operation) {
+        byte[] encrypted = record.getEncrypted();
+        byte[] plain = PLAIN.get();
+        boolean reused = encrypted.length <= MAX_REUSED_PLAIN;
+        if (!reused) {
+            plain = new byte[encrypted.length];
+        } else if (plain.length < encrypted.length) {
+            plain = new byte[MAX_REUSED_PLAIN];
+            PLAIN.set(plain);
+        }
+        int length;
+        long t = System.nanoTime();
+        try {
+            length = Crypt.dec(record.getSuite(), mKey, record.getIv(), encrypted, record.aad(key), plain);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to decrypt " + key, e);
+        }
+        mMetrics.record(operation, Stage.DECRYPT, System.nanoTime() - t);
+        try {
+            if (record.getVersion() == Record.VERSION_1) {
+                return new String(plain, 0, length, ValueCodec.UTF_8);
+            }
+            if ((record.getFlags() & ~Record.FLAG_DEFLATED) != 0) {
+                throw new IllegalStateException("Unknown flags of " + key + ": " + record.getFlags());
+            }
+            if ((record.getFlags() & Record.FLAG_DEFLATED) == 0) {
+                return ValueCodec.decode(plain, length);
+            }
+            t = System.nanoTime();
+            byte[] inflated = Compressor.inflate(plain, length);
+            mMetrics.record(operation, Stage.COMPRESSION, System.nanoTime() - t);
+            return ValueCodec.decode(inflated);
+        } finally {
+            if (reused) {
+                // don't keep the plain text around until the next decrypt
+                Arrays.fill(plain, 0, length, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Get all values.
+     * <p>
+     * Takes one snapshot of the preferences file and decrypts the entries in parallel. Internal
+     * entries such as the salt and list chunks are left out.
+     *
+     * @return the values and the per-key errors
+     */
+    public BulkResult getAll() {
+        awaitReady();
+        int[] versions = versions();
+        long t = System.nanoTime();
+        Map<String, String> snapshot = mStorage.readAll();
+        mMetrics.record(Operation.BULK, Stage.STORAGE_READ, System.nanoTime() - t);
+        List<String> keys = new ArrayList<>(snapshot.size());
+        for (String key : snapshot.keySet()) {
+            if (isReserved(key) || key.endsWith(TAIL) && snapshot.containsKey(key.substring(0, key.length() - 1))) {
+                continue;
+            }
+            keys.add(key);
+        }
+        for (String key : mCounters.keySet()) {
+            // counters that aren't written yet
+            if (!snapshot.containsKey(key)) {
+                keys.add(key);
+            }
+        }
+        return decryptAll(keys, snapshot, versions);
+    }
+
+    /**
+     * Get many values.
+     * <p>
+     * Takes one snapshot of the preferences file and decrypts the requested entries in parallel.
+     * Keys that are not stored and internal entries are missing from both the values and the
+     * errors.
+     *
+     * @param keys the keys
+     * @return the values and the per-key errors
+     */
+    public BulkResult getMany(@NonNull Collection<String> keys) {
+        awaitReady();
+        int[] versions = versions();
+        long t = System.nanoTime();
+        Map<String, String> snapshot = mStorage.readAll();
+        mMetrics.record(Operation.BULK, Stage.STORAGE_READ, System.nanoTime() - t);
+        List<String> stored = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (isReserved(key)) {
+                continue;
+            }
+            if (snapshot.containsKey(key) || mCounters.containsKey(key)) {
+                stored.add(key);
+            }
+        }
+        return decryptAll(stored, snapshot, versions);
+    }
+
+    /**
+     * Entries of the store itself that aren't values.
+     */
+    private static boolean isInternal(String key) {
+        return isKeyMaterial(key) || key.equals(MIGRATION_KEY) || key.equals(PREFETCH_KEY);
+    }
+
+    /**
+     * Checks whether the store keeps an entry of its own under the key: the key material, the
+     * migration checkpoint, the recorded startup reads or a part of a list.
+     *
+     * @param key the key
+     * @return true if the key can't be written or read as a value
+     */
+    static boolean isReserved(@NonNull String key) {
+        return isInternal(key) || ChunkedList.isListEntry(key);
+    }
+
+    /**
+     * Rejects keys that would replace an entry of the store itself. Internal writes go around it.
+     *
+     * @throws IllegalArgumentException if the key is reserved
+     * @see #isReserved(String)
+     */
+    static void checkKey(@NonNull String key) {
+        if (isReserved(key)) {
+            throw new IllegalArgumentException("Reserved key: " + key);
+        }
+    }
+
+    private int[] versions() {
+        int[] versions = new int[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            versions[i] = mVersions.get(i);
+        }
+        return versions;
+    }
+
+    private BulkResult decryptAll(final List<String> keys, final Map<String, String> snapshot,
+                                  final int[] versions) {
+        long start = System.nanoTime();
+        final BulkResult result = new BulkResult();
+        int slices = Math.min(BULK_THREADS, keys.size() / BULK_MIN_SLICE);
+        if (slices <= 1) {
+            decryptSlice(keys, snapshot, versions, result);
+        } else {
+            List<Callable<Void>> tasks = new ArrayList<>(slices);
+            int sliceSize = (keys.size() + slices - 1) / slices;
+            for (int from = 0; from < keys.size(); from += sliceSize) {
+                final List<String> slice = keys.subList(from, Math.min(from + sliceSize, keys.size()));
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        decryptSlice(slice, snapshot, versions, result);
+                        return null;
+                    }
+                });
+            }
+            try {
+                for (Future<Void> future : bulkExecutor().invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while decrypting " + mFilename, e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to decrypt " + mFilename, e.getCause());
+            }
+        }
+        if (isLogging(LogMode.GET)) {
+            Log.d(TAG, "bulk read " + result.getValues().size() + " values, "
+                    + result.getErrors().size() + " errors");
+        }
+        mMetrics.record(Operation.BULK, Stage.TOTAL, System.nanoTime() - start);
+        return result;
+    }
+
+    private void decryptSlice(List<String> keys, Map<String, String> snapshot, int[] versions,
+                              BulkResult result) {
+        LruCache<String, Object> cache = mCache;
+        for (String key : keys) {
+            AtomicLong counter = mCounters.get(key);
+            if (counter != null) {
+                result.putValue(key, counter.get());
+                continue;
+            }
+            try {
+                String stored = snapshot.get(key);
+                Record record;
+                String iv = snapshot.get(key + TAIL);
+                if (iv != null) {
+                    record = new Record(Record.VERSION_1, new CryptSet(toByte(stored), toByte(iv)));
+                } else {
+                    record = Record.decode(toByte(stored));
+                }
+                Object value = decrypt(key, record, Operation.BULK);
+                if (cache != null && value != null) {
+                    fillCache(cache, key, value, versions[stripe(key)]);
+                }
+                result.putValue(key, value);
+            } catch (Exception e) {
+                mMetrics.error(Operation.BULK, e);
+                result.putError(key, e);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService bulkExecutor() {
+        if (mBulkExecutor == null) {
+            mBulkExecutor = Executors.newFixedThreadPool(BULK_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "AesStore-bulk");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mBulkExecutor;
+    }
+
+    /**
+     * Reads a value of the given type.
+     * <p>
+     * String values, which includes every value written before the typed encoding, are parsed.
+     *
+     * @throws ClassCastException if the value is stored with another type
+     */
+    @Nullable
+    private <T> T read(@NonNull String key, @Nullable T defaultValue, Class<T> type) {
+        return read(key, defaultValue, type, Operation.GET);
+    }
+
+    @Nullable
+    private <T> T read(String key, @Nullable T defaultValue, Class<T> type, Operation operation) {
+        Object value = read(key, operation);
+        if (value == ABSENT) {
+            return defaultValue;
+        }
+        if (value == null || type.isInstance(value)) {
+            return type.cast(value);
+        }
+        if (value instanceof String) {
+            return parse(key, (String) value, type);
+        }
+        throw new ClassCastException(key + " is stored as " + ValueCodec.typeName(value)
+                + ", not as " + type.getSimpleName());
+    }
+
+    @Nullable
+    private static <T> T parse(String key, String value, Class<T> type) {
+        if (value.equals("null")) {
+            return null;
+        }
+        try {
+            if (type == Integer.class) {
+                return type.cast(Integer.valueOf(value));
+            } else if (type == Long.class) {
+                return type.cast(Long.valueOf(value));
+            } else if (type == Float.class) {
+                return type.cast(Float.valueOf(value));
+            } else if (type == Double.class) {
+                return type.cast(Double.valueOf(value));
+            } else if (type == Boolean.class) {
+                return type.cast(Boolean.valueOf(value));
+            }
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        throw new ClassCastException(key + " is stored as String, not as " + type.getSimpleName());
+    }
+
+    /**
+     * Moves a value of the two-entry format ({@code key} and {@code key + "="}) into a single
+     * record. The ciphertext is re-packed as it is, so no re-encryption is needed.
+     */
+    private Record migrate(String key, String stored) {
+        ReentrantLock lock = lock(key);
+        try {
+            String iv = mStorage.read(key + TAIL);
+            Record record = new Record(Record.VERSION_1,
+                    new CryptSet(toByte(stored), toByte(iv == null ? "" : iv)));
+            // a write since the read already replaced the old format
+            if (iv != null && stored.equals(mStorage.read(key))) {
+                mStorage.edit().put(key, toB32(record.encode())).remove(key + TAIL).apply();
+                if (mLog != LogMode.NONE) {
+                    Log.i(TAG, "migrated " + key + " to single record");
+                }
+            }
+            return record;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Init int.
+     * <p>
+     * Puts the value only if the key is not stored yet, see {@link #putIfAbsent(String, Object)}.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return true if the value was put
+     */
+    public boolean initInt(@NonNull String key, @Nullable Integer value) {
+        return putIfAbsent(key, value);
+    }
+
+    /**
+     * Put int.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void putInt(@NonNull String key, @Nullable Integer value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Gets int.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the int
+     * @throws ClassCastException if the value is stored with another type
+     */
+    @Nullable
+    public Integer getInt(@NonNull String key, @Nullable Integer defaultValue) {
+        return read(key, defaultValue, Integer.class);
+    }
+
+    /**
+     * Init bool.
+     * <p>
+     * Puts the value only if the key is not stored yet, see {@link #putIfAbsent(String, Object)}.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return true if the value was put
+     */
+    public boolean initBool(@NonNull String key, @Nullable Boolean value) {
+        return putIfAbsent(key, value);
+    }
+
+    public void putBool(@NonNull String key, @Nullable Boolean value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Gets bool.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the bool
+     * @throws ClassCastException if the value is stored with another type
+     */
+    @Nullable
+    public Boolean getBool(@NonNull String key, @Nullable Boolean defaultValue) {
+        return read(key, defaultValue, Boolean.class);
+    }
+
+    /**
+     * Init float.
+     * <p>
+     * Puts the value only if the key is not stored yet, see {@link #putIfAbsent(String, Object)}.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return true if the value was put
+     */
+    public boolean initFloat(@NonNull String key, @Nullable Float value) {
+        return putIfAbsent(key, value);
+    }
+
+    /**
+     * Put float.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void putFloat(@NonNull String key, @Nullable Float value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Gets float.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the float
+     * @throws ClassCastException if the value is stored with another type
+     */
+    @Nullable
+    public Float getFloat(@NonNull String key, @Nullable Float defaultValue) {
+        return read(key, defaultValue, Float.class);
+    }
+
+    /**
+     * Init double.
+     * <p>
+     * Puts the value only if the key is not stored yet, see {@link #putIfAbsent(String, Object)}.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return true if the value was put
+     */
+    public boolean initDouble(@NonNull String key, @Nullable Double value) {
+        return putIfAbsent(key, value);
+    }
+
+    /**
+     * Put double.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void putDouble(@NonNull String key, @Nullable Double value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Gets double.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the double
+     * @throws ClassCastException if the value is stored with another type
+     */
+    @Nullable
+    public Double getDouble(@NonNull String key, @Nullable Double defaultValue) {
+        return read(key, defaultValue, Double.class);
+    }
+
+    /**
+     * Init long.
+     * <p>
+     * Puts the value only if the key is not stored yet, see {@link #putIfAbsent(String, Object)}.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return true if the value was put
+     */
+    public boolean initLong(@NonNull String key, @Nullable Long value) {
+        return putIfAbsent(key, value);
+    }
+
+    /**
+     * Put long.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void putLong(@NonNull String key, @Nullable Long value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Gets long.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the long
+     * @throws ClassCastException if the value is stored with another type
+     */
+    @Nullable
+    public Long getLong(@NonNull String key, @Nullable Long defaultValue) {
+        return read(key, defaultValue, Long.class);
+    }
+
+    /**
+     * Put string set.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void putStringSet(@NonNull String key, @Nullable Set<String> value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Gets string set.
+     *
+     * @param key          the key
+     * @param defaultValue the default value
+     * @return the string set
+     * @throws ClassCastException if the value is stored with another type
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(@NonNull String key, @Nullable Set<String> defaultValue) {
+        return read(key, defaultValue, Set.class);
+    }
+
+    /**
+     * Imports all entries of a plain preferences file.
+     * <p>
+     * The values keep their type and are encrypted in parallel, then written in one batch,
+     * replacing values of the same keys. The imported entries are removed from the source only
+     * after the batch was committed.
+     *
+     * @param source       the plain preferences
+     * @param removeSource true to remove the imported entries from the source
+     * @return the imported values and the per-key errors
+     */
+    public BulkResult importPreferences(@NonNull SharedPreferences source, boolean removeSource) {
+        BulkResult result = importValues(source.getAll());
+        if (removeSource && !result.getValues().isEmpty()) {
+            SharedPreferences.Editor editor = source.edit();
+            for (String key : result.getValues().keySet()) {
+                editor.remove(key);
+            }
+            editor.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Imports plain values.
+     * <p>
+     * The values are encrypted in parallel, then written in one committed batch, replacing
+     * values of the same keys. Values of unsupported types and keys the store uses itself, such
+     * as the salt or the header and chunks of a list, are reported as errors.
+     *
+     * @param values the {@link String}, {@link Integer}, {@link Long}, {@link Float},
+     *               {@link Double}, {@link Boolean} and {@code Set<String>} values by key
+     * @return the imported values and the per-key errors, all values are reported as errors if
+     * the batch could not be committed
+     */
+    public BulkResult importValues(@NonNull Map<String, ?> values) {
+        awaitReady();
+        long start = System.nanoTime();
+        final BulkResult result = new BulkResult();
+        final List<String> keys = new ArrayList<>(values.size());
+        final List<Object> plain = new ArrayList<>(values.size());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            try {
+                // would replace the key material or a part of a list
+                checkKey(entry.getKey());
+            } catch (IllegalArgumentException e) {
+                result.putError(entry.getKey(), e);
+                continue;
+            }
+            keys.add(entry.getKey());
+            plain.add(entry.getValue());
+        }
+        final String[] encrypted = new String[keys.size()];
+        int slices = Math.min(BULK_THREADS, keys.size() / BULK_MIN_SLICE);
+        if (slices <= 1) {
+            encryptSlice(keys, plain, 0, keys.size(), encrypted, result);
+        } else {
+            List<Callable<Void>> tasks = new ArrayList<>(slices);
+            int sliceSize = (keys.size() + slices - 1) / slices;
+            for (int from = 0; from < keys.size(); from += sliceSize) {
+                final int sliceFrom = from;
+                final int sliceTo = Math.min(from + sliceSize, keys.size());
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        encryptSlice(keys, plain, sliceFrom, sliceTo, encrypted, result);
+                        return null;
+                    }
+                });
+            }
+            try {
+                for (Future<Void> future : bulkExecutor().invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while encrypting " + mFilename, e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to encrypt " + mFilename, e.getCause());
+            }
+        }
+
+        List<ReentrantLock> locks = lock(keys);
+        try {
+            StorageBackend.Batch batch = mStorage.edit();
+            for (int i = 0; i < keys.size(); i++) {
+                if (encrypted[i] != null) {
+                    batch.put(keys.get(i), encrypted[i]).remove(keys.get(i) + TAIL);
+                }
+            }
+            long t = System.nanoTime();
+            boolean written = batch.commit();
+            mMetrics.record(Operation.BULK, Stage.STORAGE_WRITE, System.nanoTime() - t);
+            if (!written) {
+                BulkResult failed = new BulkResult();
+                IllegalStateException error = new IllegalStateException("Failed to write " + mFilename);
+                for (String key : result.getValues().keySet()) {
+                    failed.putError(key, error);
+                }
+                for (Map.Entry<String, Exception> entry : result.getErrors().entrySet()) {
+                    failed.putError(entry.getKey(), entry.getValue());
+                }
+                return failed;
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                if (encrypted[i] != null) {
+                    updateCache(keys.get(i), plain.get(i));
+                    changed(keys.get(i));
+                }
+            }
+        } finally {
+            unlock(locks);
+        }
+        if (isLogging(LogMode.SET)) {
+            Log.d(TAG, "imported " + result.getValues().size() + " values, "
+                    + result.getErrors().size() + " errors");
+        }
+        mMetrics.record(Operation.BULK, Stage.TOTAL, System.nanoTime() - start);
+        return result;
+    }
+
+    private void encryptSlice(List<String> keys, List<Object> plain, int from, int to, String[] encrypted,
+                              BulkResult result) {
+        for (int i = from; i < to; i++) {
+            String key = keys.get(i);
+            try {
+                encrypted[i] = encrypt(key, plain.get(i), Operation.BULK);
+                result.putValue(key, plain.get(i));
+            } catch (RuntimeException e) {
+                result.putError(key, e);
+            }
+        }
+    }
+
+    /**
+     * Gets int value.
+     * <p>
+     * Unlike {@link #getInt(String, Integer)} this takes and returns a primitive. With the cache
+     * enabled a cached value is returned without allocating.
+     *
+     * @param key          the key
+     * @param defaultValue the default value, also returned for a stored {@code null}
+     * @return the int
+     * @throws ClassCastException if the value is stored with another type
+     */
+    public int getIntValue(@NonNull String key, int defaultValue) {
+        Integer value = read(key, null, Integer.class);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Put int value.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void putIntValue(@NonNull String key, int value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Gets long value.
+     *
+     * @param key          the key
+     * @param defaultValue the default value, also returned for a stored {@code null}
+     * @return the long
+     * @throws ClassCastException if the value is stored with another type
+     * @see #getIntValue(String, int)
+     */
+    public long getLongValue(@NonNull String key, long defaultValue) {
+        Long value = read(key, null, Long.class);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Put long value.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void putLongValue(@NonNull String key, long value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Gets float value.
+     *
+     * @param key          the key
+     * @param defaultValue the default value, also returned for a stored {@code null}
+     * @return the float
+     * @throws ClassCastException if the value is stored with another type
+     * @see #getIntValue(String, int)
+     */
+    public float getFloatValue(@NonNull String key, float defaultValue) {
+        Float value = read(key, null, Float.class);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Put float value.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void putFloatValue(@NonNull String key, float value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Gets double value.
+     *
+     * @param key          the key
+     * @param defaultValue the default value, also returned for a stored {@code null}
+     * @return the double
+     * @throws ClassCastException if the value is stored with another type
+     * @see #getIntValue(String, int)
+     */
+    public double getDoubleValue(@NonNull String key, double defaultValue) {
+        Double value = read(key, null, Double.class);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Put double value.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void putDoubleValue(@NonNull String key, double value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Gets bool value.
+     *
+     * @param key          the key
+     * @param defaultValue the default value, also returned for a stored {@code null}
+     * @return the bool
+     * @throws ClassCastException if the value is stored with another type
+     * @see #getIntValue(String, int)
+     */
+    public boolean getBoolValue(@NonNull String key, boolean defaultValue) {
+        Boolean value = read(key, null, Boolean.class);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Put bool value.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void putBoolValue(@NonNull String key, boolean value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Store array.
+     * <p>
+     * The list is stored in a few encrypted chunks of up to {@link ChunkedList#CHUNK_CAPACITY}
+     * elements, written in one batch.
+     *
+     * @param key    the key
+     * @param values the values
+     */
+    public void storeArray(@NonNull String key, @Nullable List<String> values) {
+        long start = System.nanoTime();
+        awaitReady();
+        if (values == null) {
+            values = Collections.emptyList();
+        }
+        List<ReentrantLock> locks = lockArray(key, (values.size() + ChunkedList.CHUNK_CAPACITY - 1) / ChunkedList.CHUNK_CAPACITY);
+        try {
+            AesEditor editor = new AesEditor(this, Operation.ARRAY);
+            removeArray(editor, key, readList(key));
+            putArray(editor, key, values);
+            editor.apply();
+            changed(key, true);
+            mMetrics.record(Operation.ARRAY, Stage.TOTAL, System.nanoTime() - start);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Restore array list.
+     * <p>
+     * Takes no lock. The header and the chunks are read again if a write of the list came in
+     * between, so that they are always read as of one write.
+     *
+     * @param key the key
+     * @return the list, empty if the key is not stored
+     */
+    public List<String> restoreArray(@NonNull String key) {
+        long start = System.nanoTime();
+        try {
+            Set<String> read = new HashSet<>();
+            while (true) {
+                int[] versions = versions();
+                read.clear();
+                try {
+                    List<String> strings = readArray(key, read);
+                    if (unchanged(read, versions)) {
+                        return strings;
+                    }
+                } catch (RuntimeException e) {
+                    // e.g. a chunk that a concurrent write just removed
+                    if (unchanged(null, versions)) {
+                        throw e;
+                    }
+                }
+                Thread.yield();
+            }
+        } catch (Exception e) {
+            mMetrics.error(Operation.ARRAY, e);
+            if (isLogging(LogMode.GET)) {
+                e.printStackTrace();
+            }
+            return new ArrayList<>();
+        } finally {
+            mMetrics.record(Operation.ARRAY, Stage.TOTAL, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reads a list without a lock.
+     *
+     * @param read collects the keys of the entries that were read
+     */
+    private List<String> readArray(String key, Set<String> read) {
+        read.add(ChunkedList.headerKey(key));
+        ChunkedList list = readList(key);
+        if (list == null) {
+            read.add(key + "_size");
+            List<String> strings = restoreLegacyArray(key);
+            for (int i = 0; i < strings.size(); i++) {
+                read.add(key + "_" + i);
+            }
+            return strings;
+        }
+        List<String> strings = new ArrayList<>(list.size());
+        for (int id : list.ids) {
+            read.add(ChunkedList.chunkKey(key, id));
+            strings.addAll(readChunk(key, id));
+        }
+        return strings;
+    }
+
+    /**
+     * Checks that no write of the keys completed or is in progress since the versions were taken.
+     *
+     * @param keys the keys, {@code null} for all
+     */
+    private boolean unchanged(@Nullable Collection<String> keys, int[] versions) {
+        if (keys == null) {
+            for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+                if (!unchanged(stripe, versions)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (String key : keys) {
+            if (!unchanged(stripe(key), versions)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean unchanged(int stripe, int[] versions) {
+        // writers hold the lock of the stripe while writing and count up its version before
+        // they unlock it
+        ReentrantLock lock = mLocks[stripe];
+        return (!lock.isLocked() || lock.isHeldByCurrentThread()) && mVersions.get(stripe) == versions[stripe];
+    }
+
+    /**
+     * Append to array.
+     * <p>
+     * Only the last chunk and the list header are rewritten.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void appendToArray(@NonNull String key, @Nullable String value) {
+        long start = System.nanoTime();
+        awaitReady();
+        List<ReentrantLock> locks = lockArray(key, 1);
+        try {
+            ChunkedList list = readList(key);
+            List<String> legacy = list == null ? restoreLegacyArray(key) : null;
+            AesEditor editor = new AesEditor(this, Operation.ARRAY);
+            if (legacy != null && !legacy.isEmpty()) {
+                // moved to the chunked format in the same batch
+                legacy.add(value);
+                removeArray(editor, key, null);
+                putArray(editor, key, legacy);
+            } else {
+                if (list == null) {
+                    // an empty list of the old format may still have its size entry
+                    removeArray(editor, key, null);
+                    list = new ChunkedList();
+                }
+                int last = list.ids.size() - 1;
+                if (last >= 0 && list.counts.get(last) < ChunkedList.CHUNK_CAPACITY) {
+                    int id = list.ids.get(last);
+                    List<String> chunk = readChunk(key, id);
+                    chunk.add(value);
+                    list.counts.set(last, chunk.size());
+                    editor.putValue(ChunkedList.chunkKey(key, id), ChunkedList.encodeChunk(chunk, 0, chunk.size()));
+                } else {
+                    int id = list.addChunk(1);
+                    editor.putValue(ChunkedList.chunkKey(key, id),
+                            ChunkedList.encodeChunk(Collections.singletonList(value), 0, 1));
+                }
+                editor.putValue(ChunkedList.headerKey(key), list.encodeHeader());
+            }
+            editor.apply();
+            changed(key, true);
+            mMetrics.record(Operation.ARRAY, Stage.TOTAL, System.nanoTime() - start);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Remove from array.
+     * <p>
+     * Only the chunk holding the element and the list header are rewritten, and a neighbour the
+     * chunk is merged with once both fit into one chunk.
+     *
+     * @param key   the key
+     * @param index the index of the element
+     * @return the removed element
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    @Nullable
+    public String removeFromArray(@NonNull String key, int index) {
+        long start = System.nanoTime();
+        awaitReady();
+        List<ReentrantLock> locks = lockArray(key, 0);
+        try {
+            ChunkedList list = readList(key);
+            if (list == null) {
+                List<String> legacy = restoreLegacyArray(key);
+                if (index < 0 || index >= legacy.size()) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + legacy.size());
+                }
+                // moved to the chunked format in the same batch
+                String removed = legacy.remove(index);
+                AesEditor editor = new AesEditor(this, Operation.ARRAY);
+                removeArray(editor, key, null);
+                putArray(editor, key, legacy);
+                editor.apply();
+                changed(key, true);
+                mMetrics.record(Operation.ARRAY, Stage.TOTAL, System.nanoTime() - start);
+                return removed;
+            }
+            if (index < 0 || index >= list.size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + list.size());
+            }
+            int chunkIndex = 0;
+            int offset = index;
+            while (offset >= list.counts.get(chunkIndex)) {
+                offset -= list.counts.get(chunkIndex);
+                chunkIndex++;
+            }
+            int id = list.ids.get(chunkIndex);
+            List<String> chunk = readChunk(key, id);
+            String removed = chunk.remove(offset);
+
+            AesEditor editor = new AesEditor(this, Operation.ARRAY);
+            list.counts.set(chunkIndex, chunk.size());
+            int neighbour = chunk.isEmpty() ? -1 : list.mergeableNeighbour(chunkIndex);
+            if (chunk.isEmpty()) {
+                list.ids.remove(chunkIndex);
+                list.counts.remove(chunkIndex);
+                editor.removeValue(ChunkedList.chunkKey(key, id));
+            } else if (neighbour >= 0) {
+                // merged in list order into the chunk that comes first
+                List<String> merged;
+                if (neighbour < chunkIndex) {
+                    merged = readChunk(key, list.ids.get(neighbour));
+                    merged.addAll(chunk);
+                } else {
+                    merged = chunk;
+                    merged.addAll(readChunk(key, list.ids.get(neighbour)));
+                }
+                int first = Math.min(chunkIndex, neighbour);
+                editor.removeValue(ChunkedList.chunkKey(key, list.mergeWithNext(first)));
+                editor.putValue(ChunkedList.chunkKey(key, list.ids.get(first)),
+                        ChunkedList.encodeChunk(merged, 0, merged.size()));
+            } else {
+                editor.putValue(ChunkedList.chunkKey(key, id), ChunkedList.encodeChunk(chunk, 0, chunk.size()));
+            }
+            editor.putValue(ChunkedList.headerKey(key), list.encodeHeader());
+            editor.apply();
+            changed(key, true);
+            mMetrics.record(Operation.ARRAY, Stage.TOTAL, System.nanoTime() - start);
+            return removed;
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    @Nullable
+    private ChunkedList readList(String key) {
+        byte[] header = read(ChunkedList.headerKey(key), null, byte[].class, Operation.ARRAY);
+        return header == null ? null : ChunkedList.decodeHeader(header);
+    }
+
+    private List<String> readChunk(String key, int id) {
+        byte[] chunk = read(ChunkedList.chunkKey(key, id), null, byte[].class, Operation.ARRAY);
+        if (chunk == null) {
+            throw new IllegalStateException("Missing chunk " + id + " of " + key);
+        }
+        return ChunkedList.decodeChunk(chunk);
+    }
+
+    /**
+     * Reads a list of the old format ({@code key_size} and one entry per element). It is moved to
+     * the chunked format by the next write of the list, a read writes nothing.
+     */
+    private List<String> restoreLegacyArray(String key) {
+        Integer size = getInt(key + "_size", null);
+        if (size == null) {
+            return new ArrayList<>();
+        }
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            strings.add(get(key + "_" + i, ""));
+        }
+        return strings;
+    }
+
+    /**
+     * Puts the values as chunks and the header of a new list.
+     */
+    private void putArray(AesEditor editor, String key, List<String> values) {
+        ChunkedList list = new ChunkedList();
+        for (int from = 0; from < values.size(); from += ChunkedList.CHUNK_CAPACITY) {
+            int to = Math.min(from + ChunkedList.CHUNK_CAPACITY, values.size());
+            int id = list.addChunk(to - from);
+            editor.putValue(ChunkedList.chunkKey(key, id), ChunkedList.encodeChunk(values, from, to));
+        }
+        editor.putValue(ChunkedList.headerKey(key), list.encodeHeader());
+    }
+
+    private void removeArray(AesEditor editor, String key, @Nullable ChunkedList list) {
+        if (list != null) {
+            for (int id : list.ids) {
+                editor.removeValue(ChunkedList.chunkKey(key, id));
+            }
+        }
+        Integer legacySize;
+        try {
+            legacySize = getInt(key + "_size", null);
+        } catch (ClassCastException e) {
+            legacySize = null;
+        }
+        if (legacySize != null) {
+            editor.removeValue(key + "_size");
+            for (int i = 0; i < legacySize; i++) {
+                editor.removeValue(key + "_" + i);
+            }
+        }
+    }
+
+    /**
+     * Gets execution time.
+     *
+     * @return the execution time of all operations in milliseconds
+     * @deprecated use {@link #getMetrics()} for latencies per operation and stage
+     */
+    @Deprecated
+    public long getExecutionTime() {
+        return TimeUnit.NANOSECONDS.toMillis(mMetrics.getTotalNanos());
+    }
+
+    /**
+     * Gets installed.
+     *
+     * @return the installed
+     */
+    public Long getInstalled() {
+        return getLong(AesSetup.INST_DATE.toString(), -1L);
+    }
+
+    /**
+     * Gets executions.
+     *
+     * @return the executions
+     */
+    public Long getExecutions() {
+        return getLong(AesSetup.EXECUTIONS.toString(), -1L);
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Decrypts a blob file written by {@link BlobOutputStream}, one frame at a time.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+class BlobInputStream extends InputStream {
+
+    /**
+     * Room for the padding or the authentication tag of an encrypted frame.
+     */
+    private static final int MAX_OVERHEAD = 32;
+
+    private final File mSource;
+
+    private final DataInputStream mIn;
+
+    private final CipherSuite mSuite;
+
+    private final SecretKey mKey;
+
+    private final byte[] mEncrypted;
+
+    private final byte[] mFrame;
+
+    private final byte[] mIv;
+
+    private final byte[] mTag;
+
+    private int mPosition = 0;
+
+    private int mLimit = 0;
+
+    private int mIndex = 0;
+
+    private boolean mLast = false;
+
+    BlobInputStream(File source, String name, SecretKey key) throws IOException {
+        mSource = source;
+        mKey = key;
+        mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(source)));
+        try {
+            if (mIn.readInt() != BlobOutputStream.MAGIC) {
+                throw new IOException("Not a blob: " + source);
+            }
+            mSuite = CipherSuite.ofId(mIn.readByte());
+            int frameSize = mIn.readInt();
+            if (frameSize <= 0 || frameSize > BlobOutputStream.FRAME_SIZE) {
+                throw new IOException("Corrupted blob: " + source);
+            }
+            mEncrypted = new byte[BlobOutputStream.FRAME_HEADER + frameSize + MAX_OVERHEAD];
+            mFrame = new byte[mEncrypted.length];
+            mIv = new byte[mSuite.getIvLength()];
+            byte[] nonce = new byte[BlobOutputStream.NONCE_LENGTH];
+            mIn.readFully(nonce);
+            mTag = BlobOutputStream.tag(name, nonce);
+        } catch (IOException | RuntimeException e) {
+            mIn.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return mFrame[mPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, mLimit - mPosition);
+        System.arraycopy(mFrame, mPosition, b, off, n);
+        mPosition += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return mLimit - mPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    /**
+     * Decrypts the next frame once the current one is consumed.
+     *
+     * @return false at the end of the blob
+     */
+    private boolean fill() throws IOException {
+        while (mPosition == mLimit) {
+            if (mLast) {
+                return false;
+            }
+            readFrame();
+        }
+        return true;
+    }
+
+    private void readFrame() throws IOException {
+        int length;
+        try {
+            if (mIn.readUnsignedByte() != mIv.length) {
+                throw new IOException("Corrupted blob: " + mSource);
+            }
+            length = mIn.readInt();
+            if (length < 0 || length > mEncrypted.length) {
+                throw new IOException("Corrupted blob: " + mSource);
+            }
+            mIn.readFully(mIv);
+            mIn.readFully(mEncrypted, 0, length);
+        } catch (EOFException e) {
+            throw new IOException("Truncated blob: " + mSource, e);
+        }
+        int plain;
+        try {
+            plain = Crypt.dec(mSuite, mKey, mIv, mEncrypted, 0, length, mFrame);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt " + mSource, e);
+        }
+        if (plain < BlobOutputStream.FRAME_HEADER || ValueCodec.getInt(mFrame, 1) != mIndex
+                || !Arrays.equals(mTag, Arrays.copyOfRange(mFrame, 5, BlobOutputStream.FRAME_HEADER))) {
+            throw new IOException("Corrupted blob: " + mSource);
+        }
+        mIndex++;
+        mLast = (mFrame[0] & BlobOutputStream.FLAG_LAST) != 0;
+        mPosition = BlobOutputStream.FRAME_HEADER;
+        mLimit = plain;
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import com.pepperonas.aesprefs.Crypt.CryptSet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Encrypts a stream into a blob file, one frame of at most {@link #FRAME_SIZE} bytes at a time.
+ * <p>
+ * File: {@code [magic][suiteId][frameSize][nonce]} followed by frames of
+ * {@code [ivLength][encryptedLength][iv][encrypted]}. The plain text of a frame is
+ * {@code [flags][index][tag][data]}: the index and the {@link #FLAG_LAST} flag are encrypted with
+ * the data, so that reordered, dropped or truncated frames are detected on reading. The tag is
+ * derived from the key of the blob and the random nonce of the file, so that the blob file of
+ * another key, or frames of another file, don't decrypt as the blob of the key.
+ * <p>
+ * The blob is written to a temporary file of its own that replaces the old blob on
+ * {@link #close()}, so concurrent writers of a key never see each other's data.
+ *
+ * @author Martin Pfeffer
+ * @see BlobInputStream
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+class BlobOutputStream extends OutputStream {
+
+    /**
+     * "AESB"
+     */
+    static final int MAGIC = 0x41455342;
+
+    static final int FRAME_SIZE = 64 * 1024;
+
+    static final int NONCE_LENGTH = 8;
+
+    static final int TAG_LENGTH = 8;
+
+    /**
+     * Flags, index and tag in front of the data of a frame.
+     */
+    static final int FRAME_HEADER = 1 + 4 + TAG_LENGTH;
+
+    static final byte FLAG_LAST = 1;
+
+    private final File mTarget;
+
+    private final File mTmp;
+
+    private final FileOutputStream mFile;
+
+    private final DataOutputStream mOut;
+
+    private final CipherSuite mSuite;
+
+    private final SecretKey mKey;
+
+    private final byte[] mFrame = new byte[FRAME_HEADER + FRAME_SIZE];
+
+    private int mPosition = FRAME_HEADER;
+
+    private int mIndex = 0;
+
+    private boolean mClosed = false;
+
+    BlobOutputStream(File target, String name, CipherSuite suite, SecretKey key) throws IOException {
+        mTarget = target;
+        mTmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        mSuite = suite;
+        mKey = key;
+        FileOutputStream file = null;
+        boolean done = false;
+        try {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            new SecureRandom().nextBytes(nonce);
+            System.arraycopy(tag(name, nonce), 0, mFrame, 5, TAG_LENGTH);
+            file = new FileOutputStream(mTmp);
+            mFile = file;
+            mOut = new DataOutputStream(new BufferedOutputStream(file));
+            mOut.writeInt(MAGIC);
+            mOut.writeByte(suite.getId());
+            mOut.writeInt(FRAME_SIZE);
+            mOut.write(nonce);
+            done = true;
+        } finally {
+            if (!done) {
+                // nobody gets to close the stream
+                if (file != null) {
+                    file.close();
+                }
+                //noinspection ResultOfMethodCallIgnored
+                mTmp.delete();
+            }
+        }
+    }
+
+    /**
+     * The tag of the frames of a blob file.
+     *
+     * @param name  the key of the blob
+     * @param nonce the nonce of the file
+     * @return the first {@link #TAG_LENGTH} bytes of the SHA-256 of the nonce and the key
+     */
+    static byte[] tag(String name, byte[] nonce) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(nonce);
+            return Arrays.copyOf(digest.digest(name.getBytes(ValueCodec.UTF_8)), TAG_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (mPosition == mFrame.length) {
+            writeFrame(false);
+        }
+        mFrame[mPosition++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (mPosition == mFrame.length) {
+                writeFrame(false);
+            }
+            int n = Math.min(len, mFrame.length - mPosition);
+            System.arraycopy(b, off, mFrame, mPosition, n);
+            mPosition += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the last frame and replaces the old blob.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        boolean done = false;
+        try {
+            writeFrame(true);
+            mOut.flush();
+            mFile.getFD().sync();
+            mOut.close();
+            if (!mTmp.renameTo(mTarget)) {
+                throw new IOException("Failed to replace " + mTarget);
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                mOut.close();
+                //noinspection ResultOfMethodCallIgnored
+                mTmp.delete();
+            }
+        }
+    }
+
+    private void writeFrame(boolean last) throws IOException {
+        mFrame[0] = last ? FLAG_LAST : 0;
+        ValueCodec.putInt(mFrame, 1, mIndex++);
+        CryptSet cs;
+        try {
+            cs = Crypt.enc(mSuite, mKey, mFrame, 0, mPosition);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt " + mTarget, e);
+        }
+        mOut.writeByte(cs.getIv().length);
+        mOut.writeInt(cs.getEncrypted().length);
+        mOut.write(cs.getIv());
+        mOut.write(cs.getEncrypted());
+        mPosition = FRAME_HEADER;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pepperonas.aesprefs;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The result of {@link AesStore#getAll()}, {@link AesStore#getMany(java.util.Collection)} and
+ * {@link AesStore#importValues(Map)}.
+ * <p>
+ * Values keep their stored type ({@link String}, {@link Integer}, {@link Long}, {@link Float},
+ * {@link Double}, {@link Boolean} or {@code Set<String>}). Keys that could not be decrypted or
+ * imported are reported in {@link #getErrors()} instead of being replaced by a default.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class BulkResult {
+
+    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Exception> errors = new HashMap<>();
+
+    BulkResult() {
+    }
+
+    synchronized void putValue(String key, Object value) {
+        values.put(key, value);
+    }
+
+    synchronized void putError(String key, Exception error) {
+        errors.put(key, error);
+    }
+
+    /**
+     * Gets values.
+     *
+     * @return the decrypted values by key
+     */
+    public synchronized Map<String, Object> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Gets errors.
+     *
+     * @return the errors by key
+     */
+    public synchronized Map<String, Exception> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * Has errors.
+     *
+     * @return true if at least one key could not be decrypted
+     */
+    public synchronized boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Receives the changes of the values of an {@link AesStore}.
+ * <p>
+ * Changes are reported once per logical key, never for the internal entries a value or a list
+ * is stored in. Several changes of a key within the change window of the store are reported
+ * as one.
+ *
+ * @author Martin Pfeffer
+ * @see AesStore#addChangeListener(ChangeListener)
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public interface ChangeListener {
+
+    /**
+     * Called with the keys that changed within one change window.
+     *
+     * @param changes the changes, one per key
+     */
+    void onChanged(@NonNull List<AesChange> changes);
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pepperonas.aesprefs;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout of a list that is stored as a few encrypted chunks.
+ * <p>
+ * The header entry {@code key + "_list"} holds the next free chunk id followed by the id and the
+ * element count of every chunk, in list order. Each chunk entry {@code key + "_chunk" + id} holds
+ * up to {@link #CHUNK_CAPACITY} length-prefixed UTF-8 elements. Appending touches only the last
+ * chunk, removing touches only the chunk holding the element; both rewrite the small header. A
+ * chunk that fits into a neighbour after a removal is merged into it, so removals don't leave
+ * many small chunks behind.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+final class ChunkedList {
+
+    /**
+     * The maximum number of elements per chunk.
+     */
+    static final int CHUNK_CAPACITY = 64;
+
+    private static final int NULL_LENGTH = -1;
+
+    /**
+     * Ids of the chunks in list order.
+     */
+    final List<Integer> ids = new ArrayList<>();
+    /**
+     * Element counts of the chunks in list order.
+     */
+    final List<Integer> counts = new ArrayList<>();
+    int nextId = 0;
+
+    static String headerKey(String key) {
+        return key + "_list";
+    }
+
+    static String chunkKey(String key, int id) {
+        return key + "_chunk" + id;
+    }
+
+    /**
+     * Checks whether a key has the name of a list header or chunk.
+     *
+     * @param key the key
+     * @return true if the key ends with {@code _list} or {@code _chunk} and an id
+     */
+    static boolean isListEntry(String key) {
+        if (key.endsWith("_list")) {
+            return true;
+        }
+        int chunk = key.lastIndexOf("_chunk");
+        if (chunk < 0 || chunk + 6 == key.length()) {
+            return false;
+        }
+        for (int i = chunk + 6; i < key.length(); i++) {
+            if (key.charAt(i) < '0' || key.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of elements.
+     *
+     * @return the size
+     */
+    int size() {
+        int size = 0;
+        for (int count : counts) {
+            size += count;
+        }
+        return size;
+    }
+
+    /**
+     * Adds a chunk at the end.
+     *
+     * @param count the element count
+     * @return the id of the new chunk
+     */
+    int addChunk(int count) {
+        int id = nextId++;
+        ids.add(id);
+        counts.add(count);
+        return id;
+    }
+
+    /**
+     * Finds the neighbour a chunk can be merged with.
+     *
+     * @param index the index of the chunk in list order
+     * @return the index of the previous or else the next chunk if both fit into one chunk,
+     * {@code -1} if neither does
+     */
+    int mergeableNeighbour(int index) {
+        int count = counts.get(index);
+        if (index > 0 && counts.get(index - 1) + count <= CHUNK_CAPACITY) {
+            return index - 1;
+        }
+        if (index + 1 < counts.size() && counts.get(index + 1) + count <= CHUNK_CAPACITY) {
+            return index + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Merges a chunk with the next one, keeping the id of the first.
+     *
+     * @param index the index of the first chunk in list order
+     * @return the id of the chunk that is dropped
+     */
+    int mergeWithNext(int index) {
+        counts.set(index, counts.get(index) + counts.remove(index + 1));
+        return ids.remove(index + 1);
+    }
+
+    /**
+     * Encode the header.
+     *
+     * @return the bytes
+     */
+    byte[] encodeHeader() {
+        byte[] out = new byte[8 + ids.size() * 8];
+        ValueCodec.putInt(out, 0, nextId);
+        ValueCodec.putInt(out, 4, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            ValueCodec.putInt(out, 8 + i * 8, ids.get(i));
+            ValueCodec.putInt(out, 12 + i * 8, counts.get(i));
+        }
+        return out;
+    }
+
+    /**
+     * Decode a header.
+     *
+     * @param bytes the bytes
+     * @return the chunked list
+     * @throws IllegalArgumentException if the header is corrupted
+     */
+    static ChunkedList decodeHeader(byte[] bytes) {
+        if (bytes.length < 8) {
+            throw new IllegalArgumentException("List header too short: " + bytes.length);
+        }
+        ChunkedList list = new ChunkedList();
+        list.nextId = ValueCodec.getInt(bytes, 0);
+        int chunks = ValueCodec.getInt(bytes, 4);
+        if (list.nextId < 0 || chunks < 0 || 8 + (long) chunks * 8 != bytes.length) {
+            throw new IllegalArgumentException("Corrupted list header");
+        }
+        for (int i = 0; i < chunks; i++) {
+            int id = ValueCodec.getInt(bytes, 8 + i * 8);
+            int count = ValueCodec.getInt(bytes, 12 + i * 8);
+            if (id < 0 || id >= list.nextId || count < 0 || count > CHUNK_CAPACITY) {
+                throw new IllegalArgumentException("Corrupted list header");
+            }
+            list.ids.add(id);
+            list.counts.add(count);
+        }
+        return list;
+    }
+
+    /**
+     * Encode elements to a chunk.
+     *
+     * @param values the values
+     * @param from   the first index, inclusive
+     * @param to     the last index, exclusive
+     * @return the bytes
+     */
+    static byte[] encodeChunk(List<String> values, int from, int to) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] length = new byte[4];
+        for (int i = from; i < to; i++) {
+            String value = values.get(i);
+            if (value == null) {
+                ValueCodec.putInt(length, 0, NULL_LENGTH);
+                out.write(length, 0, 4);
+            } else {
+                byte[] utf8 = value.getBytes(ValueCodec.UTF_8);
+                ValueCodec.putInt(length, 0, utf8.length);
+                out.write(length, 0, 4);
+                out.write(utf8, 0, utf8.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a chunk.
+     *
+     * @param bytes the bytes
+     * @return the elements
+     * @throws IllegalArgumentException if the chunk is corrupted
+     */
+    static List<String> decodeChunk(byte[] bytes) {
+        List<String> values = new ArrayList<>();
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (bytes.length - offset < 4) {
+                throw new IllegalArgumentException("Corrupted list chunk");
+            }
+            int length = ValueCodec.getInt(bytes, offset);
+            offset += 4;
+            if (length == NULL_LENGTH) {
+                values.add(null);
+            } else if (length < 0 || length > bytes.length - offset) {
+                throw new IllegalArgumentException("Invalid element length: " + length);
+            } else {
+                values.add(new String(bytes, offset, length, ValueCodec.UTF_8));
+                offset += length;
+            }
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pepperonas.aesprefs;
+
+/**
+ * The cipher used to encrypt values. The id is stored in every record, so a store can read
+ * values of all suites no matter which one it writes.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public enum CipherSuite {
+    /**
+     * AES in CBC mode with PKCS5 padding, without integrity check. Used by all records written
+     * before cipher suites were selectable.
+     */
+    AES_CBC((byte) 1, "AES/CBC/PKCS5Padding", 16),
+    /**
+     * AES in GCM mode. Needs no padding and detects corrupted or tampered values. Requires API 19.
+     */
+    AES_GCM((byte) 2, "AES/GCM/NoPadding", 12);
+
+    private final byte id;
+    private final String transformation;
+    private final int ivLength;
+
+    CipherSuite(byte id, String transformation, int ivLength) {
+        this.id = id;
+        this.transformation = transformation;
+        this.ivLength = ivLength;
+    }
+
+    /**
+     * Gets id.
+     *
+     * @return the id stored in records
+     */
+    public byte getId() {
+        return id;
+    }
+
+    /**
+     * Gets transformation.
+     *
+     * @return the transformation passed to {@link javax.crypto.Cipher#getInstance(String)}
+     */
+    public String getTransformation() {
+        return transformation;
+    }
+
+    /**
+     * Gets iv length.
+     *
+     * @return the iv length in bytes
+     */
+    public int getIvLength() {
+        return ivLength;
+    }
+
+    /**
+     * Of id cipher suite.
+     *
+     * @param id the id
+     * @return the cipher suite
+     * @throws IllegalArgumentException if the id is unknown
+     */
+    public static CipherSuite ofId(byte id) {
+        for (CipherSuite suite : values()) {
+            if (suite.id == id) {
+                return suite;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cipher suite: " + id);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pepperonas.aesprefs;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of encoded values before they are encrypted.
+ * <p>
+ * Layout: {@code [plain length int][deflate data]}, so the value is inflated into an array of
+ * its exact size.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+final class Compressor {
+
+    /**
+     * The most plain bytes deflate can encode per compressed byte, a larger announced length
+     * is corrupted and isn't allocated.
+     */
+    static final int MAX_RATIO = 1032;
+
+    private Compressor() {
+    }
+
+    /**
+     * Deflate the bytes.
+     *
+     * @param plain the bytes
+     * @return the compressed bytes, {@code null} if they aren't smaller than the plain bytes
+     */
+    static byte[] deflate(byte[] plain) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+            // nothing is gained from output that doesn't fit into the plain size
+            byte[] out = new byte[plain.length];
+            int length = 4;
+            while (!deflater.finished() && length < out.length) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+            ValueCodec.putInt(out, 0, plain.length);
+            byte[] compressed = new byte[length];
+            System.arraycopy(out, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflate the bytes.
+     *
+     * @param compressed the bytes written by {@link #deflate(byte[])}
+     * @param length     the number of bytes
+     * @return the plain bytes
+     * @throws IllegalArgumentException if the bytes are corrupted
+     */
+    static byte[] inflate(byte[] compressed, int length) {
+        if (length < 4) {
+            throw new IllegalArgumentException("Compressed value too short: " + length);
+        }
+        int plainLength = ValueCodec.getInt(compressed, 0);
+        if (plainLength < 0 || plainLength > (long) (length - 4) * MAX_RATIO) {
+            throw new IllegalArgumentException("Invalid plain length: " + plainLength);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed, 4, length - 4);
+            byte[] plain = new byte[plainLength];
+            int inflated = 0;
+            while (inflated < plainLength) {
+                int n = inflater.inflate(plain, inflated, plainLength - inflated);
+                if (n == 0) {
+                    // truncated
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated == plainLength && !inflater.finished()) {
+                // reads the end of the stream, or data beyond the announced length
+                inflated += inflater.inflate(new byte[1]);
+            }
+            if (inflated != plainLength || !inflater.finished()) {
+                throw new IllegalArgumentException("Corrupted compressed value");
+            }
+            return plain;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted compressed value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
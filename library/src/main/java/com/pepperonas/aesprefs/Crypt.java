@@ -20,13 +20,17 @@ import android.support.annotation.Nullable;
 
 import java.io.UnsupportedEncodingException;
 import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.InvalidParameterSpecException;
 import java.security.spec.KeySpec;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -34,6 +38,7 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -51,6 +56,19 @@ public class Crypt {
      * The constant DERIVATION_ITERATION_COUNT.
      */
     public static final int DERIVATION_ITERATION_COUNT = 65536;
+    /**
+     * The lowest iteration count {@link #calibrateIterationCount(long)} picks.
+     */
+    public static final int MIN_ITERATION_COUNT = 10000;
+    /**
+     * The highest iteration count {@link #calibrateIterationCount(long)} picks.
+     */
+    public static final int MAX_ITERATION_COUNT = 10000000;
+
+    /**
+     * Iterations of one measurement during the calibration.
+     */
+    private static final int CALIBRATION_ITERATION_COUNT = 8192;
     /**
      * The constant KEY_SIZE.
      */
@@ -60,6 +78,57 @@ public class Crypt {
      */
     public static final int SEED_SIZE = 8;
 
+    /**
+     * The constant GCM_TAG_LENGTH in bits.
+     */
+    public static final int GCM_TAG_LENGTH = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Cipher contexts are not thread-safe, so every thread keeps its own instance per suite and
+     * re-initialises it with the key and a fresh IV for each operation.
+     */
+    private static final ThreadLocal<Cipher[]> CIPHERS = new ThreadLocal<Cipher[]>() {
+        @Override
+        protected Cipher[] initialValue() {
+            return new Cipher[CipherSuite.values().length];
+        }
+    };
+
+    private static Cipher cipher(CipherSuite suite) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Cipher[] ciphers = CIPHERS.get();
+        Cipher cipher = ciphers[suite.ordinal()];
+        if (cipher == null) {
+            cipher = Cipher.getInstance(suite.getTransformation());
+            ciphers[suite.ordinal()] = cipher;
+        }
+        return cipher;
+    }
+
+    /**
+     * Initialises the cipher of the thread. A cipher whose init failed, e.g. on a corrupted IV,
+     * is dropped, as it refuses any later init.
+     */
+    private static Cipher cipher(CipherSuite suite, int mode, SecretKey secret, byte[] iv)
+            throws GeneralSecurityException {
+        Cipher cipher = cipher(suite);
+        try {
+            cipher.init(mode, secret, spec(suite, iv));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            CIPHERS.get()[suite.ordinal()] = null;
+            throw e;
+        }
+        return cipher;
+    }
+
+    private static AlgorithmParameterSpec spec(CipherSuite suite, byte[] iv) {
+        if (suite == CipherSuite.AES_GCM) {
+            return new GCMParameterSpec(GCM_TAG_LENGTH, iv);
+        }
+        return new IvParameterSpec(iv);
+    }
+
     /**
      * The type Crypt set.
      */
@@ -269,6 +338,19 @@ public class Crypt {
      * @return the secret key
      */
     public static KeySet getSecretKey(String password, @Nullable byte[] srBytes) {
+        return getSecretKey(password, srBytes, DERIVATION_ITERATION_COUNT);
+    }
+
+    /**
+     * Gets secret key with the given iteration count.
+     *
+     * @param password   the password
+     * @param srBytes    the sr bytes, pass {@code null} to generate a new salt
+     * @param iterations the iteration count
+     * @return the secret key
+     * @see #calibrateIterationCount(long)
+     */
+    public static KeySet getSecretKey(String password, @Nullable byte[] srBytes, int iterations) {
         SecureRandom sr = null;
         if (srBytes == null) {
             try {
@@ -289,7 +371,7 @@ public class Crypt {
             e.printStackTrace();
         }
         KeySpec spec = new PBEKeySpec(password.toCharArray(), srBytes,
-                DERIVATION_ITERATION_COUNT, KEY_SIZE);
+                iterations, KEY_SIZE);
         SecretKey tmp = null;
         try {
             if (factory != null) {
@@ -304,6 +386,48 @@ public class Crypt {
         return null;
     }
 
+    /**
+     * Generates a random AES key of {@link #KEY_SIZE} bits.
+     *
+     * @return the key
+     */
+    static SecretKey generateKey() {
+        byte[] raw = new byte[KEY_SIZE / 8];
+        RANDOM.nextBytes(raw);
+        SecretKey key = new SecretKeySpec(raw, "AES");
+        Arrays.fill(raw, (byte) 0);
+        return key;
+    }
+
+    /**
+     * Measures the speed of the key derivation on this device.
+     * <p>
+     * Takes the best of three short derivations, so that a warm-up or a busy moment doesn't
+     * lower the count.
+     *
+     * @param targetMillis the time a key derivation should take
+     * @return the iteration count that derives a key in about {@code targetMillis}, rounded to
+     * thousands and clamped to {@link #MIN_ITERATION_COUNT} and {@link #MAX_ITERATION_COUNT}
+     */
+    public static int calibrateIterationCount(long targetMillis) {
+        char[] password = "calibration".toCharArray();
+        byte[] salt = new byte[SEED_SIZE];
+        long best = Long.MAX_VALUE;
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            for (int i = 0; i < 3; i++) {
+                long t = System.nanoTime();
+                factory.generateSecret(new PBEKeySpec(password, salt, CALIBRATION_ITERATION_COUNT, KEY_SIZE));
+                best = Math.min(best, System.nanoTime() - t);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 not available", e);
+        }
+        long iterations = CALIBRATION_ITERATION_COUNT * TimeUnit.MILLISECONDS.toNanos(targetMillis)
+                / Math.max(1, best) / 1000 * 1000;
+        return (int) Math.max(MIN_ITERATION_COUNT, Math.min(MAX_ITERATION_COUNT, iterations));
+    }
+
     /**
      * Enc byte [ ].
      * <p>
@@ -315,47 +439,83 @@ public class Crypt {
      * @return the byte [ ]
      */
     public static CryptSet enc(SecretKey secret, String text) {
-        byte[] encrypted = null;
-        byte[] iv = null;
-        Cipher cipher = null;
         try {
-            cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            e.printStackTrace();
-        }
-        try {
-            if (cipher != null) {
-                cipher.init(Cipher.ENCRYPT_MODE, secret);
-            }
-        } catch (InvalidKeyException e) {
+            return enc(secret, text.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
+            return new CryptSet(null, null);
         }
-        AlgorithmParameters params = null;
-        if (cipher != null) {
-            params = cipher.getParameters();
-        }
+    }
+
+    /**
+     * Enc byte [ ].
+     *
+     * @param secret the secret
+     * @param plain  the plain bytes
+     * @return the crypt set
+     */
+    public static CryptSet enc(SecretKey secret, byte[] plain) {
         try {
-            if (params != null) {
-                iv = params.getParameterSpec(IvParameterSpec.class).getIV();
-            }
-        } catch (InvalidParameterSpecException e) {
-            e.printStackTrace();
-        }
-        try {
-            if (cipher != null) {
-                encrypted = cipher.doFinal(text.getBytes("UTF-8"));
-            }
-        } catch (IllegalBlockSizeException e) {
-            e.printStackTrace();
-        } catch (BadPaddingException e) {
-            e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
+            return enc(CipherSuite.AES_CBC, secret, plain);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
+            return new CryptSet(null, null);
         }
+    }
 
-        return new CryptSet(encrypted, iv);
+    /**
+     * Enc byte [ ] with a fresh random IV.
+     *
+     * @param suite  the cipher suite
+     * @param secret the secret
+     * @param plain  the plain bytes
+     * @return the crypt set
+     * @throws GeneralSecurityException if the cipher can't be created or initialised
+     */
+    public static CryptSet enc(CipherSuite suite, SecretKey secret, byte[] plain)
+            throws GeneralSecurityException {
+        return enc(suite, secret, plain, 0, plain.length);
+    }
+
+    /**
+     * Enc a part of a buffer with a fresh random IV.
+     *
+     * @param suite  the cipher suite
+     * @param secret the secret
+     * @param plain  the buffer
+     * @param offset the offset of the plain bytes
+     * @param length the number of plain bytes
+     * @return the crypt set
+     * @throws GeneralSecurityException if the cipher can't be created or initialised
+     */
+    static CryptSet enc(CipherSuite suite, SecretKey secret, byte[] plain, int offset, int length)
+            throws GeneralSecurityException {
+        return enc(suite, secret, plain, offset, length, null);
+    }
+
+    /**
+     * Enc with a fresh random IV, authenticating additional data along with the value.
+     *
+     * @param suite  the cipher suite
+     * @param secret the secret
+     * @param plain  the plain bytes
+     * @param aad    the additional data, only authenticated by {@link CipherSuite#AES_GCM}, or
+     *               {@code null}
+     * @return the crypt set
+     * @throws GeneralSecurityException if the cipher can't be created or initialised
+     */
+    static CryptSet enc(CipherSuite suite, SecretKey secret, byte[] plain, @Nullable byte[] aad)
+            throws GeneralSecurityException {
+        return enc(suite, secret, plain, 0, plain.length, aad);
+    }
+
+    private static CryptSet enc(CipherSuite suite, SecretKey secret, byte[] plain, int offset, int length,
+                                @Nullable byte[] aad) throws GeneralSecurityException {
+        byte[] iv = new byte[suite.getIvLength()];
+        RANDOM.nextBytes(iv);
+        Cipher cipher = cipher(suite, Cipher.ENCRYPT_MODE, secret, iv);
+        updateAad(suite, cipher, aad);
+        return new CryptSet(cipher.doFinal(plain, offset, length), iv);
     }
 
     /**
@@ -371,28 +531,121 @@ public class Crypt {
      */
     @Nullable
     public static String dec(SecretKey secret, byte[] iv, byte[] encrypted) {
-        String decrypted = null;
-        Cipher cipher = null;
+        byte[] decrypted = decBytes(secret, iv, encrypted);
         try {
-            cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            return decrypted == null ? null : new String(decrypted, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Dec byte [ ].
+     *
+     * @param secret    the secret
+     * @param iv        the iv
+     * @param encrypted the encrypted
+     * @return the plain bytes, {@code null} if decryption failed
+     */
+    @Nullable
+    public static byte[] decBytes(SecretKey secret, byte[] iv, byte[] encrypted) {
+        if (secret == null || iv == null || iv.length == 0) {
+            throw new IllegalStateException("Cipher not initialized");
         }
         try {
-            if (cipher != null && secret != null && iv != null && iv.length != 0) {
-                cipher.init(Cipher.DECRYPT_MODE, secret, new IvParameterSpec(iv));
-            }
+            return dec(CipherSuite.AES_CBC, secret, iv, encrypted);
         } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
             e.printStackTrace();
-        }
-        try {
-            if (cipher != null) {
-                decrypted = new String(cipher.doFinal(encrypted), "UTF-8");
-            }
-        } catch (UnsupportedEncodingException | BadPaddingException | IllegalBlockSizeException e) {
+            // the reused cipher still holds the previous key and IV
+            throw new IllegalStateException("Cipher not initialized");
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Dec byte [ ].
+     * <p>
+     * With {@link CipherSuite#AES_GCM} a corrupted or tampered value fails with an
+     * {@link javax.crypto.AEADBadTagException}.
+     *
+     * @param suite     the cipher suite
+     * @param secret    the secret
+     * @param iv        the iv
+     * @param encrypted the encrypted
+     * @return the plain bytes
+     * @throws GeneralSecurityException if the value can't be decrypted
+     */
+    public static byte[] dec(CipherSuite suite, SecretKey secret, byte[] iv, byte[] encrypted)
+            throws GeneralSecurityException {
+        Cipher cipher = cipher(suite, Cipher.DECRYPT_MODE, secret, iv);
+        return cipher.doFinal(encrypted);
+    }
+
+    /**
+     * Dec into a buffer.
+     * <p>
+     * The plain text is never longer than the encrypted bytes, so a buffer of their length is
+     * always large enough.
+     *
+     * @param suite     the cipher suite
+     * @param secret    the secret
+     * @param iv        the iv
+     * @param encrypted the encrypted
+     * @param out       the buffer the plain bytes are written to
+     * @return the number of plain bytes
+     * @throws GeneralSecurityException if the value can't be decrypted
+     */
+    static int dec(CipherSuite suite, SecretKey secret, byte[] iv, byte[] encrypted, byte[] out)
+            throws GeneralSecurityException {
+        return dec(suite, secret, iv, encrypted, 0, encrypted.length, out);
+    }
+
+    /**
+     * Dec into a buffer, checking the additional data the value was encrypted with.
+     *
+     * @param suite     the cipher suite
+     * @param secret    the secret
+     * @param iv        the iv
+     * @param encrypted the encrypted
+     * @param aad       the additional data, only authenticated by {@link CipherSuite#AES_GCM}, or
+     *                  {@code null}
+     * @param out       the buffer the plain bytes are written to
+     * @return the number of plain bytes
+     * @throws GeneralSecurityException if the value can't be decrypted or the data doesn't match
+     */
+    static int dec(CipherSuite suite, SecretKey secret, byte[] iv, byte[] encrypted, @Nullable byte[] aad,
+                   byte[] out) throws GeneralSecurityException {
+        Cipher cipher = cipher(suite, Cipher.DECRYPT_MODE, secret, iv);
+        updateAad(suite, cipher, aad);
+        return cipher.doFinal(encrypted, 0, encrypted.length, out, 0);
+    }
+
+    /**
+     * Dec a part of a buffer into another buffer.
+     *
+     * @param suite     the cipher suite
+     * @param secret    the secret
+     * @param iv        the iv
+     * @param encrypted the buffer of encrypted bytes
+     * @param offset    the offset of the encrypted bytes
+     * @param length    the number of encrypted bytes
+     * @param out       the buffer the plain bytes are written to, at least {@code length} long
+     * @return the number of plain bytes
+     * @throws GeneralSecurityException if the value can't be decrypted
+     */
+    static int dec(CipherSuite suite, SecretKey secret, byte[] iv, byte[] encrypted, int offset, int length,
+                   byte[] out) throws GeneralSecurityException {
+        Cipher cipher = cipher(suite, Cipher.DECRYPT_MODE, secret, iv);
+        return cipher.doFinal(encrypted, offset, length, out, 0);
+    }
+
+    private static void updateAad(CipherSuite suite, Cipher cipher, @Nullable byte[] aad) {
+        if (aad != null && suite == CipherSuite.AES_GCM) {
+            cipher.updateAAD(aad);
         }
-        return decrypted;
     }
 
 }
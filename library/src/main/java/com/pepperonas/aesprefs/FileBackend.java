@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps the records in a plain binary file without the XML overhead of SharedPreferences.
+ * <p>
+ * The file is read on first access and kept in memory. Every change rewrites it to a temporary
+ * file that then replaces the old one, so a crash never leaves a half written file. Writes of
+ * {@link Batch#apply()} run on a background thread and are coalesced.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class FileBackend implements StorageBackend {
+
+    private static final String TAG = "FileBackend";
+
+    /**
+     * "AESF"
+     */
+    private static final int MAGIC = 0x41455346;
+
+    private static ExecutorService mWriter;
+
+    private final File mFile;
+
+    private final Object mWriteLock = new Object();
+
+    private Map<String, String> mValues;
+
+    /**
+     * Incremented on every change, guarded by {@code this}.
+     */
+    private long mVersion = 0;
+
+    /**
+     * The version on disk, guarded by {@link #mWriteLock}.
+     */
+    private long mWrittenVersion = 0;
+
+    /**
+     * Instantiates a new File backend.
+     *
+     * @param file the file, created on the first write
+     */
+    public FileBackend(@NonNull File file) {
+        mFile = file;
+    }
+
+    @Nullable
+    @Override
+    public synchronized String read(@NonNull String key) {
+        return values().get(key);
+    }
+
+    @Override
+    public synchronized boolean contains(@NonNull String key) {
+        return values().containsKey(key);
+    }
+
+    @NonNull
+    @Override
+    public synchronized Map<String, String> readAll() {
+        return new HashMap<>(values());
+    }
+
+    @NonNull
+    @Override
+    public synchronized Set<String> keys() {
+        return new HashSet<>(values().keySet());
+    }
+
+    @NonNull
+    @Override
+    public Batch edit() {
+        return new MemoryBackend.MapBatch() {
+            @Override
+            public void apply() {
+                change(this);
+                writer().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        write();
+                    }
+                });
+            }
+
+            @Override
+            public boolean commit() {
+                change(this);
+                return write();
+            }
+        };
+    }
+
+    @Override
+    public boolean flush() {
+        return write();
+    }
+
+    private synchronized void change(MemoryBackend.MapBatch batch) {
+        batch.applyTo(values());
+        mVersion++;
+    }
+
+    private Map<String, String> values() {
+        if (mValues == null) {
+            try {
+                mValues = load();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read " + mFile, e);
+            }
+        }
+        return mValues;
+    }
+
+    /**
+     * Writes the current values unless they are already on disk.
+     */
+    private boolean write() {
+        synchronized (mWriteLock) {
+            Map<String, String> snapshot;
+            long version;
+            synchronized (this) {
+                if (mVersion == mWrittenVersion) {
+                    return true;
+                }
+                snapshot = new HashMap<>(values());
+                version = mVersion;
+            }
+            try {
+                store(snapshot);
+                mWrittenVersion = version;
+                return true;
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write " + mFile + ": " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    private Map<String, String> load() throws IOException {
+        Map<String, String> values = new HashMap<>();
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return values;
+        }
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a storage file");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                values.put(readString(in), readString(in));
+            }
+        } finally {
+            in.close();
+        }
+        return values;
+    }
+
+    private void store(Map<String, String> values) throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(values.size());
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            throw new IOException("Failed to replace " + mFile);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupted entry");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, ValueCodec.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(ValueCodec.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static synchronized ExecutorService writer() {
+        if (mWriter == null) {
+            mWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "FileBackend-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mWriter;
+    }
+
+}
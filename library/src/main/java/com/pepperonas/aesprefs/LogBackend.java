@@ -0,0 +1,616 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the records in an append-only log that is mapped into memory.
+ * <p>
+ * A put appends one entry and moves the key in the in-memory index to it, so it costs the size
+ * of the value instead of the size of the store. The entries of a batch are followed by a commit
+ * entry that holds their count. The index is rebuilt by scanning the log when the file is
+ * opened; the entries of a batch are only indexed once its commit entry is read, so a batch torn
+ * by a crash is dropped as a whole. Only the last batch can be torn: a broken entry that is
+ * followed by a committed batch fails the open instead of dropping the data behind it. Once the overwritten and removed entries make up more than
+ * the compaction ratio of the log, the live entries are copied into a new log on a background
+ * thread.
+ * <p>
+ * Entry: {@code [type][keyLength][valueLength][key][value][crc32]}, the commit entry has an empty
+ * key and the count as value.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class LogBackend implements StorageBackend {
+
+    private static final String TAG = "LogBackend";
+
+    /**
+     * "AESL"
+     */
+    private static final int MAGIC = 0x4145534C;
+
+    private static final int HEADER_SIZE = 4;
+
+    private static final byte PUT = 1;
+
+    private static final byte REMOVE = 2;
+
+    private static final byte COMMIT = 3;
+
+    /**
+     * Type, key length and value length before the key, checksum after the value.
+     */
+    private static final int ENTRY_OVERHEAD = 1 + 4 + 4 + 4;
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    /**
+     * Logs with less dead bytes are not worth compacting.
+     */
+    private static final int MIN_COMPACTION_BYTES = 64 * 1024;
+
+    /**
+     * Default share of dead bytes in the log that triggers a compaction.
+     */
+    public static final float DEFAULT_COMPACTION_RATIO = 0.5f;
+
+    private static ExecutorService mCompactor;
+
+    private final File mFile;
+
+    private final float mCompactionRatio;
+
+    private Segment mLog;
+
+    /**
+     * Key to the offset of its entry in the log.
+     */
+    private final Map<String, Integer> mIndex = new HashMap<>();
+
+    private int mDeadBytes = 0;
+
+    private boolean mCompacting = false;
+
+    /**
+     * Instantiates a new Log backend.
+     *
+     * @param file the file, created on first access
+     */
+    public LogBackend(@NonNull File file) {
+        this(file, DEFAULT_COMPACTION_RATIO);
+    }
+
+    /**
+     * Instantiates a new Log backend.
+     *
+     * @param file            the file, created on first access
+     * @param compactionRatio the share of dead bytes in the log that triggers a compaction,
+     *                        between 0 and 1
+     */
+    public LogBackend(@NonNull File file, float compactionRatio) {
+        if (compactionRatio <= 0f || compactionRatio >= 1f) {
+            throw new IllegalArgumentException("compactionRatio must be between 0 and 1");
+        }
+        mFile = file;
+        mCompactionRatio = compactionRatio;
+    }
+
+    @Nullable
+    @Override
+    public synchronized String read(@NonNull String key) {
+        Segment log = log();
+        Integer offset = mIndex.get(key);
+        return offset == null ? null : log.valueAt(offset);
+    }
+
+    @Override
+    public synchronized boolean contains(@NonNull String key) {
+        log();
+        return mIndex.containsKey(key);
+    }
+
+    @NonNull
+    @Override
+    public synchronized Map<String, String> readAll() {
+        Segment log = log();
+        Map<String, String> values = new HashMap<>(mIndex.size());
+        for (Map.Entry<String, Integer> entry : mIndex.entrySet()) {
+            values.put(entry.getKey(), log.valueAt(entry.getValue()));
+        }
+        return values;
+    }
+
+    @NonNull
+    @Override
+    public synchronized Set<String> keys() {
+        log();
+        return new HashSet<>(mIndex.keySet());
+    }
+
+    @NonNull
+    @Override
+    public Batch edit() {
+        return new MemoryBackend.MapBatch() {
+            @Override
+            public void apply() {
+                try {
+                    append(changes(), false);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to write " + mFile + ": " + e.getMessage());
+                }
+                changes().clear();
+            }
+
+            @Override
+            public boolean commit() {
+                try {
+                    append(changes(), true);
+                    return true;
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to write " + mFile + ": " + e.getMessage());
+                    return false;
+                } finally {
+                    changes().clear();
+                }
+            }
+        };
+    }
+
+    /**
+     * Forces the mapped log to disk.
+     */
+    @Override
+    public synchronized boolean flush() {
+        log().buffer.force();
+        return true;
+    }
+
+    /**
+     * Gets dead bytes.
+     *
+     * @return the bytes of overwritten and removed entries that the next compaction drops
+     */
+    public synchronized int getDeadBytes() {
+        log();
+        return mDeadBytes;
+    }
+
+    /**
+     * Gets log size.
+     *
+     * @return the bytes of the log in use, including the dead ones
+     */
+    public synchronized int getLogSize() {
+        return log().end;
+    }
+
+    /**
+     * Forces the log to disk and closes the file. The backend reopens it on the next access.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    public synchronized void close() throws IOException {
+        if (mLog != null) {
+            mLog.buffer.force();
+            mLog.close();
+            mLog = null;
+            mIndex.clear();
+            mDeadBytes = 0;
+        }
+    }
+
+    /**
+     * Appends the changes of a batch followed by their commit entry, so a batch is either read
+     * back completely or not at all.
+     */
+    private synchronized void append(Map<String, String> changes, boolean force) throws IOException {
+        Segment log = log();
+        List<String> keys = new ArrayList<>(changes.size());
+        List<byte[]> entries = new ArrayList<>(changes.size());
+        int size = 0;
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null && !mIndex.containsKey(change.getKey())) {
+                continue;
+            }
+            byte[] entry = encodeEntry(change.getKey(), change.getValue());
+            keys.add(change.getKey());
+            entries.add(entry);
+            size += entry.length;
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        byte[] commit = encodeCommit(entries.size());
+        log.ensureCapacity(log.end + size + commit.length);
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] entry = entries.get(i);
+            index(keys.get(i), entry[0], log.append(entry), entry.length, log);
+        }
+        log.append(commit);
+        mDeadBytes += commit.length;
+        if (force) {
+            log.buffer.force();
+        }
+        if (!mCompacting && mDeadBytes >= MIN_COMPACTION_BYTES && mDeadBytes > mCompactionRatio * log.end) {
+            mCompacting = true;
+            compactor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * Points the key to a new entry and accounts for the entry it replaces.
+     */
+    private void index(String key, byte type, int offset, int size, Segment log) {
+        mDeadBytes += index(mIndex, key, type, offset, size, log);
+    }
+
+    /**
+     * Points the key to a new entry of the given index.
+     *
+     * @return the bytes that became dead
+     */
+    private static int index(Map<String, Integer> index, String key, byte type, int offset, int size,
+                             Segment log) {
+        if (type == COMMIT) {
+            // only needed until the batch is compacted
+            return size;
+        }
+        int dead = 0;
+        Integer old = type == PUT ? index.put(key, offset) : index.remove(key);
+        if (old != null) {
+            dead += log.entrySize(old);
+        }
+        if (type == REMOVE) {
+            dead += size;
+        }
+        return dead;
+    }
+
+    private Segment log() {
+        if (mLog == null) {
+            Segment log = null;
+            try {
+                log = Segment.open(mFile);
+                mDeadBytes = 0;
+                log.scan(this);
+                mLog = log;
+            } catch (IOException e) {
+                mIndex.clear();
+                if (log != null) {
+                    try {
+                        log.close();
+                    } catch (IOException ignored) {
+                        // failing anyway
+                    }
+                }
+                throw new IllegalStateException("Failed to open " + mFile, e);
+            }
+        }
+        return mLog;
+    }
+
+    /**
+     * Copies the live entries into a new log. Writers are only blocked while the entries that
+     * were appended in the meantime are copied and the logs are swapped. The index and the log
+     * are only replaced once the new file is in place, so a failure leaves the backend as it was.
+     */
+    private void compact() {
+        File tmp = new File(mFile.getPath() + ".compact");
+        Segment target = null;
+        try {
+            Map<String, Integer> index;
+            ByteBuffer source;
+            int end;
+            synchronized (this) {
+                Segment log = log();
+                index = new HashMap<>(mIndex);
+                source = log.buffer.duplicate();
+                end = log.end;
+            }
+
+            if (tmp.exists() && !tmp.delete()) {
+                throw new IOException("Failed to delete " + tmp);
+            }
+            target = Segment.open(tmp);
+            Map<String, Integer> compacted = new HashMap<>(index.size());
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                byte[] bytes = Segment.entryAt(source, entry.getValue());
+                target.ensureCapacity(target.end + bytes.length);
+                compacted.put(entry.getKey(), target.append(bytes));
+            }
+            if (!compacted.isEmpty()) {
+                // the live entries form one batch of the new log
+                byte[] commit = encodeCommit(compacted.size());
+                target.ensureCapacity(target.end + commit.length);
+                target.append(commit);
+            }
+
+            synchronized (this) {
+                Segment log = log();
+                int dead = 0;
+                // batches appended while copying, with their commit entries
+                for (int offset = end; offset < log.end; ) {
+                    byte[] bytes = Segment.entryAt(log.buffer, offset);
+                    target.ensureCapacity(target.end + bytes.length);
+                    dead += index(compacted, Segment.keyOf(bytes), bytes[0], target.append(bytes),
+                            bytes.length, target);
+                    offset += bytes.length;
+                }
+                target.buffer.force();
+                if (!tmp.renameTo(mFile)) {
+                    throw new IOException("Failed to replace " + mFile);
+                }
+                mIndex.clear();
+                mIndex.putAll(compacted);
+                mDeadBytes = dead;
+                mLog = target;
+                target = null;
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to close the old log of " + mFile + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // nothing was swapped yet, the old log stays in use
+            Log.w(TAG, "Failed to compact " + mFile + ": " + e);
+        } finally {
+            if (target != null) {
+                try {
+                    target.close();
+                } catch (IOException ignored) {
+                    // the file is deleted anyway
+                }
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+            }
+            synchronized (this) {
+                mCompacting = false;
+            }
+        }
+    }
+
+    private static byte[] encodeEntry(String key, @Nullable String value) {
+        byte[] k = key.getBytes(ValueCodec.UTF_8);
+        byte[] v = value == null ? new byte[0] : value.getBytes(ValueCodec.UTF_8);
+        byte[] entry = new byte[ENTRY_OVERHEAD + k.length + v.length];
+        entry[0] = value == null ? REMOVE : PUT;
+        ValueCodec.putInt(entry, 1, k.length);
+        ValueCodec.putInt(entry, 5, v.length);
+        System.arraycopy(k, 0, entry, 9, k.length);
+        System.arraycopy(v, 0, entry, 9 + k.length, v.length);
+        ValueCodec.putInt(entry, entry.length - 4, checksum(entry));
+        return entry;
+    }
+
+    private static byte[] encodeCommit(int count) {
+        byte[] entry = new byte[ENTRY_OVERHEAD + 4];
+        entry[0] = COMMIT;
+        ValueCodec.putInt(entry, 5, 4);
+        ValueCodec.putInt(entry, 9, count);
+        ValueCodec.putInt(entry, entry.length - 4, checksum(entry));
+        return entry;
+    }
+
+    private static int checksum(byte[] entry) {
+        CRC32 crc = new CRC32();
+        crc.update(entry, 0, entry.length - 4);
+        return (int) crc.getValue();
+    }
+
+    private static synchronized ExecutorService compactor() {
+        if (mCompactor == null) {
+            mCompactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "LogBackend-compactor");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return mCompactor;
+    }
+
+    /**
+     * One log file and its mapping.
+     */
+    private static final class Segment {
+
+        private final RandomAccessFile file;
+
+        private MappedByteBuffer buffer;
+
+        /**
+         * The offset the next entry is appended at.
+         */
+        private int end;
+
+        private Segment(RandomAccessFile file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static Segment open(File f) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(f, "rw");
+            long length = file.length();
+            if (length > Integer.MAX_VALUE) {
+                file.close();
+                throw new IOException("Log too large");
+            }
+            int capacity = Math.max((int) length, INITIAL_CAPACITY);
+            Segment segment = new Segment(file, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+            if (length < HEADER_SIZE) {
+                segment.buffer.putInt(0, MAGIC);
+            } else if (segment.buffer.getInt(0) != MAGIC) {
+                file.close();
+                throw new IOException("Not a log file");
+            }
+            segment.end = HEADER_SIZE;
+            return segment;
+        }
+
+        /**
+         * Reads the entries of all committed batches into the index of the backend and finds the
+         * end of the log behind the last one.
+         *
+         * @throws IOException if a broken entry is followed by a committed batch
+         */
+        void scan(LogBackend backend) throws IOException {
+            List<Integer> pending = new ArrayList<>();
+            int offset = HEADER_SIZE;
+            int committed = HEADER_SIZE;
+            while (isEntry(offset)) {
+                byte[] entry = entryAt(buffer, offset);
+                if (entry[0] == COMMIT) {
+                    if (entry.length != ENTRY_OVERHEAD + 4 || ValueCodec.getInt(entry, 9) != pending.size()) {
+                        break;
+                    }
+                    for (int pendingOffset : pending) {
+                        byte[] change = entryAt(buffer, pendingOffset);
+                        backend.index(keyOf(change), change[0], pendingOffset, change.length, this);
+                    }
+                    backend.index("", COMMIT, offset, entry.length, this);
+                    pending.clear();
+                    offset += entry.length;
+                    committed = offset;
+                } else {
+                    pending.add(offset);
+                    offset += entry.length;
+                }
+            }
+            end = committed;
+            if (end < buffer.capacity() && buffer.get(end) != 0) {
+                int next = nextCommit(end);
+                if (next >= 0) {
+                    throw new IOException("Corrupted entry at " + offset + " before the batch committed at " + next);
+                }
+                Log.w(TAG, "Dropping torn batch at " + end);
+                for (int i = end; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+            }
+        }
+
+        /**
+         * Finds a commit entry behind the given offset, which a torn last batch can't have.
+         *
+         * @return the offset of the commit entry, {@code -1} if there is none
+         */
+        private int nextCommit(int from) {
+            for (int offset = from; offset + ENTRY_OVERHEAD + 4 <= buffer.capacity(); offset++) {
+                if (buffer.get(offset) == COMMIT && buffer.getInt(offset + 1) == 0
+                        && buffer.getInt(offset + 5) == 4 && isEntry(offset)) {
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        private boolean isEntry(int offset) {
+            int capacity = buffer.capacity();
+            if (offset + ENTRY_OVERHEAD > capacity) {
+                return false;
+            }
+            byte type = buffer.get(offset);
+            if (type != PUT && type != REMOVE && type != COMMIT) {
+                return false;
+            }
+            long size = (long) ENTRY_OVERHEAD + buffer.getInt(offset + 1) + buffer.getInt(offset + 5);
+            if (buffer.getInt(offset + 1) < 0 || buffer.getInt(offset + 5) < 0 || offset + size > capacity) {
+                return false;
+            }
+            byte[] entry = entryAt(buffer, offset);
+            return ValueCodec.getInt(entry, entry.length - 4) == checksum(entry);
+        }
+
+        void ensureCapacity(int capacity) throws IOException {
+            if (capacity > buffer.capacity()) {
+                long grown = Math.max(capacity, 2L * buffer.capacity());
+                if (grown > Integer.MAX_VALUE) {
+                    throw new IOException("Log too large");
+                }
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, grown);
+            }
+        }
+
+        int append(byte[] entry) {
+            int offset = end;
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset);
+            target.put(entry);
+            end += entry.length;
+            return offset;
+        }
+
+        int entrySize(int offset) {
+            return ENTRY_OVERHEAD + buffer.getInt(offset + 1) + buffer.getInt(offset + 5);
+        }
+
+        String valueAt(int offset) {
+            int keyLength = buffer.getInt(offset + 1);
+            byte[] value = new byte[buffer.getInt(offset + 5)];
+            ByteBuffer source = buffer.duplicate();
+            source.position(offset + 9 + keyLength);
+            source.get(value);
+            return new String(value, ValueCodec.UTF_8);
+        }
+
+        static byte[] entryAt(ByteBuffer buffer, int offset) {
+            byte[] entry = new byte[ENTRY_OVERHEAD + buffer.getInt(offset + 1) + buffer.getInt(offset + 5)];
+            ByteBuffer source = buffer.duplicate();
+            source.position(offset);
+            source.get(entry);
+            return entry;
+        }
+
+        static String keyOf(byte[] entry) {
+            return new String(entry, 9, ValueCodec.getInt(entry, 1), ValueCodec.UTF_8);
+        }
+
+        void close() throws IOException {
+            file.close();
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the records in memory only, e.g. for tests, benchmarks and values that must not outlive
+ * the process.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class MemoryBackend implements StorageBackend {
+
+    private final Map<String, String> mValues = new HashMap<>();
+
+    @Nullable
+    @Override
+    public synchronized String read(@NonNull String key) {
+        return mValues.get(key);
+    }
+
+    @Override
+    public synchronized boolean contains(@NonNull String key) {
+        return mValues.containsKey(key);
+    }
+
+    @NonNull
+    @Override
+    public synchronized Map<String, String> readAll() {
+        return new HashMap<>(mValues);
+    }
+
+    @NonNull
+    @Override
+    public synchronized Set<String> keys() {
+        return new HashSet<>(mValues.keySet());
+    }
+
+    @NonNull
+    @Override
+    public Batch edit() {
+        return new MapBatch() {
+            @Override
+            public boolean commit() {
+                synchronized (MemoryBackend.this) {
+                    applyTo(mValues);
+                }
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public boolean flush() {
+        return true;
+    }
+
+    /**
+     * Collects the changes of a batch, a removal is stored as {@code null}.
+     */
+    abstract static class MapBatch implements Batch {
+
+        private final Map<String, String> mChanges = new HashMap<>();
+
+        @NonNull
+        @Override
+        public Batch put(@NonNull String key, @NonNull String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Batch remove(@NonNull String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+
+        Map<String, String> changes() {
+            return mChanges;
+        }
+
+        void applyTo(Map<String, String> values) {
+            for (Map.Entry<String, String> entry : mChanges.entrySet()) {
+                if (entry.getValue() == null) {
+                    values.remove(entry.getKey());
+                } else {
+                    values.put(entry.getKey(), entry.getValue());
+                }
+            }
+            mChanges.clear();
+        }
+    }
+
+}
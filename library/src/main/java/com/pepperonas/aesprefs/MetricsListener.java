@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pepperonas.aesprefs;
+
+import com.pepperonas.aesprefs.AesMetrics.Operation;
+import com.pepperonas.aesprefs.AesMetrics.Stage;
+
+/**
+ * Receives every measurement of an {@link AesStore}, e.g. to export it to telemetry.
+ * <p>
+ * Called synchronously on the thread doing the work, so implementations must be fast and must
+ * not call back into the store.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public interface MetricsListener {
+
+    /**
+     * Called after a stage of an operation finished.
+     *
+     * @param operation the operation
+     * @param stage     the stage
+     * @param nanos     the latency in nanoseconds
+     */
+    void onTiming(Operation operation, Stage stage, long nanos);
+
+    /**
+     * Called when an operation failed.
+     *
+     * @param operation the operation
+     * @param error     the error
+     */
+    void onError(Operation operation, Throwable error);
+}
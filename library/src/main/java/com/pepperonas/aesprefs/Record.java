@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.Nullable;
+
+import com.pepperonas.aesprefs.Crypt.CryptSet;
+
+/**
+ * The on-disk record of a single encrypted value.
+ * <p>
+ * Layout of {@link #VERSION_3}: {@code [version][suite][flags][iv length][iv][ciphertext]}.
+ * Versions 1 and 2 are {@code [version][iv length][iv][ciphertext]} and always
+ * {@link CipherSuite#AES_CBC}. The plaintext of a {@link #VERSION_1} record is a UTF-8 string, the
+ * plaintext of later versions is a typed value of {@link ValueCodec}. A {@link #VERSION_3} record
+ * of {@link CipherSuite#AES_GCM} authenticates its header and the key it is stored under, see
+ * {@link #aad(String)}, so neither a flag nor a swap with another entry goes unnoticed.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+final class Record {
+
+    /**
+     * The constant VERSION_1.
+     */
+    static final byte VERSION_1 = 1;
+    /**
+     * The constant VERSION_2.
+     */
+    static final byte VERSION_2 = 2;
+    /**
+     * The constant VERSION_3.
+     */
+    static final byte VERSION_3 = 3;
+    /**
+     * Flag of a {@link #VERSION_3} record whose plaintext is compressed by {@link Compressor}.
+     */
+    static final byte FLAG_DEFLATED = 0x01;
+
+    private final byte version;
+    private final CipherSuite suite;
+    private final byte flags;
+    private final byte[] iv;
+    private final byte[] encrypted;
+
+    /**
+     * Instantiates a new Record of version 1 or 2.
+     *
+     * @param version the version
+     * @param cs      the crypt set
+     */
+    Record(byte version, CryptSet cs) {
+        this(version, CipherSuite.AES_CBC, (byte) 0, cs);
+    }
+
+    /**
+     * Instantiates a new Record.
+     *
+     * @param version the version
+     * @param suite   the cipher suite
+     * @param flags   the flags, {@code 0} for none
+     * @param cs      the crypt set
+     */
+    Record(byte version, CipherSuite suite, byte flags, CryptSet cs) {
+        this.version = version;
+        this.suite = suite;
+        this.flags = flags;
+        this.iv = cs.getIv();
+        this.encrypted = cs.getEncrypted();
+    }
+
+    /**
+     * Gets version.
+     *
+     * @return the version
+     */
+    byte getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets suite.
+     *
+     * @return the cipher suite
+     */
+    CipherSuite getSuite() {
+        return suite;
+    }
+
+    /**
+     * Gets flags.
+     *
+     * @return the flags
+     */
+    byte getFlags() {
+        return flags;
+    }
+
+    /**
+     * Get iv byte [ ].
+     *
+     * @return the byte [ ]
+     */
+    byte[] getIv() {
+        return iv;
+    }
+
+    /**
+     * Get encrypted byte [ ].
+     *
+     * @return the byte [ ]
+     */
+    byte[] getEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * The additional data authenticated along with the value.
+     *
+     * @param key the key the record is stored under
+     * @return the header bytes followed by the UTF-8 key, {@code null} below {@link #VERSION_3}
+     */
+    @Nullable
+    byte[] aad(String key) {
+        return version == VERSION_3 ? aad(suite, flags, key) : null;
+    }
+
+    /**
+     * The additional data of a {@link #VERSION_3} record that is about to be encrypted.
+     *
+     * @param suite the cipher suite
+     * @param flags the flags
+     * @param key   the key the record is stored under
+     * @return the header bytes followed by the UTF-8 key
+     */
+    static byte[] aad(CipherSuite suite, byte flags, String key) {
+        byte version = VERSION_3;
+        byte[] utf8 = key.getBytes(ValueCodec.UTF_8);
+        byte[] aad = new byte[3 + utf8.length];
+        aad[0] = version;
+        aad[1] = suite.getId();
+        aad[2] = flags;
+        System.arraycopy(utf8, 0, aad, 3, utf8.length);
+        return aad;
+    }
+
+    /**
+     * Encode the record.
+     *
+     * @return the bytes
+     */
+    byte[] encode() {
+        int header = version == VERSION_3 ? 4 : 2;
+        byte[] record = new byte[header + iv.length + encrypted.length];
+        record[0] = version;
+        if (version == VERSION_3) {
+            record[1] = suite.getId();
+            record[2] = flags;
+        }
+        record[header - 1] = (byte) iv.length;
+        System.arraycopy(iv, 0, record, header, iv.length);
+        System.arraycopy(encrypted, 0, record, header + iv.length, encrypted.length);
+        return record;
+    }
+
+    /**
+     * Decode a record.
+     *
+     * @param record the bytes
+     * @return the record
+     * @throws IllegalArgumentException if the record is truncated or has an unknown version or suite
+     */
+    static Record decode(byte[] record) {
+        if (record.length < 2) {
+            throw new IllegalArgumentException("Record too short: " + record.length);
+        }
+        byte version = record[0];
+        int header;
+        CipherSuite suite = CipherSuite.AES_CBC;
+        byte flags = 0;
+        if (version == VERSION_1 || version == VERSION_2) {
+            header = 2;
+        } else if (version == VERSION_3) {
+            header = 4;
+            if (record.length < header) {
+                throw new IllegalArgumentException("Record too short: " + record.length);
+            }
+            suite = CipherSuite.ofId(record[1]);
+            flags = record[2];
+        } else {
+            throw new IllegalArgumentException("Unknown record version: " + version);
+        }
+        int ivLength = record[header - 1] & 0xFF;
+        if (record.length < header + ivLength) {
+            throw new IllegalArgumentException("Record too short: " + record.length);
+        }
+        byte[] iv = new byte[ivLength];
+        byte[] encrypted = new byte[record.length - header - ivLength];
+        System.arraycopy(record, header, iv, 0, ivLength);
+        System.arraycopy(record, header + ivLength, encrypted, 0, encrypted.length);
+        return new Record(version, suite, flags, new CryptSet(encrypted, iv));
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the records in a {@link SharedPreferences} file. This is the default backend.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public class SharedPreferencesBackend implements StorageBackend {
+
+    private final SharedPreferences mPrefs;
+
+    /**
+     * Instantiates a new Shared preferences backend.
+     *
+     * @param context  the context
+     * @param filename the filename of the preferences file
+     */
+    public SharedPreferencesBackend(@NonNull Context context, @NonNull String filename) {
+        this(context.getSharedPreferences(filename, Context.MODE_PRIVATE));
+    }
+
+    /**
+     * Instantiates a new Shared preferences backend.
+     *
+     * @param prefs the preferences
+     */
+    public SharedPreferencesBackend(@NonNull SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    @Nullable
+    @Override
+    public String read(@NonNull String key) {
+        return mPrefs.getString(key, null);
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        return mPrefs.contains(key);
+    }
+
+    @NonNull
+    @Override
+    public Map<String, String> readAll() {
+        Map<String, ?> all = mPrefs.getAll();
+        Map<String, String> strings = new HashMap<>(all.size());
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                strings.put(entry.getKey(), (String) entry.getValue());
+            }
+        }
+        return strings;
+    }
+
+    @NonNull
+    @Override
+    public Set<String> keys() {
+        return mPrefs.getAll().keySet();
+    }
+
+    @NonNull
+    @Override
+    public Batch edit() {
+        final SharedPreferences.Editor editor = mPrefs.edit();
+        return new Batch() {
+            @NonNull
+            @Override
+            public Batch put(@NonNull String key, @NonNull String value) {
+                editor.putString(key, value);
+                return this;
+            }
+
+            @NonNull
+            @Override
+            public Batch remove(@NonNull String key) {
+                editor.remove(key);
+                return this;
+            }
+
+            @Override
+            public void apply() {
+                editor.apply();
+            }
+
+            @Override
+            public boolean commit() {
+                return editor.commit();
+            }
+        };
+    }
+
+    /**
+     * Commits an empty editor, which waits for the writes of earlier {@code apply()} calls.
+     */
+    @Override
+    public boolean flush() {
+        return mPrefs.edit().commit();
+    }
+
+}
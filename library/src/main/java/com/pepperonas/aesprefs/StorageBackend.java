@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pepperonas.aesprefs;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The storage an {@link AesStore} keeps its encrypted records in.
+ * <p>
+ * A backend only sees Base64 text: the salt, the records and the list chunks. It must be safe to
+ * use from several threads.
+ *
+ * @author Martin Pfeffer
+ * @see SharedPreferencesBackend
+ * @see MemoryBackend
+ * @see FileBackend
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+public interface StorageBackend {
+
+    /**
+     * Read.
+     *
+     * @param key the key
+     * @return the stored text, or {@code null} if the key is not stored
+     */
+    @Nullable
+    String read(@NonNull String key);
+
+    /**
+     * Contains.
+     *
+     * @param key the key
+     * @return true if the key is stored
+     */
+    boolean contains(@NonNull String key);
+
+    /**
+     * Read all.
+     *
+     * @return a snapshot of all stored entries, which is not changed by later writes
+     */
+    @NonNull
+    Map<String, String> readAll();
+
+    /**
+     * Keys.
+     *
+     * @return a snapshot of all stored keys
+     */
+    @NonNull
+    Set<String> keys();
+
+    /**
+     * Starts a batch of writes.
+     *
+     * @return the batch
+     */
+    @NonNull
+    Batch edit();
+
+    /**
+     * Blocks until all applied batches are persisted.
+     *
+     * @return true if everything was written successfully
+     */
+    boolean flush();
+
+    /**
+     * Changes that are made visible together.
+     */
+    interface Batch {
+
+        /**
+         * Put.
+         *
+         * @param key   the key
+         * @param value the value
+         * @return the batch
+         */
+        @NonNull
+        Batch put(@NonNull String key, @NonNull String value);
+
+        /**
+         * Remove.
+         *
+         * @param key the key
+         * @return the batch
+         */
+        @NonNull
+        Batch remove(@NonNull String key);
+
+        /**
+         * Makes the changes visible at once and persists them in the background.
+         */
+        void apply();
+
+        /**
+         * Makes the changes visible and persists them before returning.
+         *
+         * @return true if the changes were written successfully
+         */
+        boolean commit();
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2017 Martin Pfeffer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pepperonas.aesprefs;
+
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Binary encoding of typed values: one type tag followed by the raw value.
+ * <p>
+ * Numbers are stored big-endian with their natural width, e.g. four bytes for an int, strings
+ * as UTF-8.
+ *
+ * @author Martin Pfeffer
+ * @see <a href="https://celox.io">https://celox.io</a>
+ */
+final class ValueCodec {
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_INT = 2;
+    static final byte TYPE_LONG = 3;
+    static final byte TYPE_FLOAT = 4;
+    static final byte TYPE_DOUBLE = 5;
+    static final byte TYPE_BOOL = 6;
+    static final byte TYPE_BYTES = 7;
+    static final byte TYPE_STRING_SET = 8;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ValueCodec() {
+    }
+
+    /**
+     * Encode a value.
+     *
+     * @param value a {@link String}, {@link Integer}, {@link Long}, {@link Float}, {@link Double},
+     *              {@link Boolean}, {@code byte[]}, a {@link Set} of strings or {@code null}
+     * @return the bytes
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    static byte[] encode(Object value) {
+        if (value == null) {
+            return new byte[]{TYPE_NULL};
+        } else if (value instanceof String) {
+            byte[] utf8 = ((String) value).getBytes(UTF_8);
+            byte[] out = new byte[1 + utf8.length];
+            out[0] = TYPE_STRING;
+            System.arraycopy(utf8, 0, out, 1, utf8.length);
+            return out;
+        } else if (value instanceof Integer) {
+            byte[] out = new byte[5];
+            out[0] = TYPE_INT;
+            putInt(out, 1, (Integer) value);
+            return out;
+        } else if (value instanceof Long) {
+            byte[] out = new byte[9];
+            out[0] = TYPE_LONG;
+            putLong(out, 1, (Long) value);
+            return out;
+        } else if (value instanceof Float) {
+            byte[] out = new byte[5];
+            out[0] = TYPE_FLOAT;
+            putInt(out, 1, Float.floatToIntBits((Float) value));
+            return out;
+        } else if (value instanceof Double) {
+            byte[] out = new byte[9];
+            out[0] = TYPE_DOUBLE;
+            putLong(out, 1, Double.doubleToLongBits((Double) value));
+            return out;
+        } else if (value instanceof Boolean) {
+            return new byte[]{TYPE_BOOL, (byte) ((Boolean) value ? 1 : 0)};
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            byte[] out = new byte[1 + bytes.length];
+            out[0] = TYPE_BYTES;
+            System.arraycopy(bytes, 0, out, 1, bytes.length);
+            return out;
+        } else if (value instanceof Set) {
+            return encodeStringSet((Set<?>) value);
+        }
+        throw new IllegalArgumentException("Unsupported type: " + value.getClass().getName());
+    }
+
+    /**
+     * Decode a value.
+     *
+     * @param bytes the bytes
+     * @return the value
+     * @throws IllegalArgumentException if the type tag is unknown or the value is truncated
+     */
+    static Object decode(byte[] bytes) {
+        return decode(bytes, bytes.length);
+    }
+
+    /**
+     * Decode a value from the start of a buffer.
+     *
+     * @param bytes  the buffer
+     * @param length the length of the value
+     * @return the value, which does not share the buffer
+     * @throws IllegalArgumentException if the type tag is unknown or the value is truncated
+     */
+    static Object decode(byte[] bytes, int length) {
+        if (length == 0) {
+            throw new IllegalArgumentException("Empty value");
+        }
+        switch (bytes[0]) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return new String(bytes, 1, length - 1, UTF_8);
+            case TYPE_INT:
+                checkLength(length, 4);
+                return getInt(bytes, 1);
+            case TYPE_LONG:
+                checkLength(length, 8);
+                return getLong(bytes, 1);
+            case TYPE_FLOAT:
+                checkLength(length, 4);
+                return Float.intBitsToFloat(getInt(bytes, 1));
+            case TYPE_DOUBLE:
+                checkLength(length, 8);
+                return Double.longBitsToDouble(getLong(bytes, 1));
+            case TYPE_BOOL:
+                checkLength(length, 1);
+                return bytes[1] != 0;
+            case TYPE_BYTES:
+                byte[] out = new byte[length - 1];
+                System.arraycopy(bytes, 1, out, 0, out.length);
+                return out;
+            case TYPE_STRING_SET:
+                return decodeStringSet(bytes, length);
+            default:
+                throw new IllegalArgumentException("Unknown type tag: " + bytes[0]);
+        }
+    }
+
+    /**
+     * The element count, followed by the length and the UTF-8 bytes of every element.
+     */
+    private static byte[] encodeStringSet(Set<?> set) {
+        byte[][] elements = new byte[set.size()][];
+        int length = 1 + 4;
+        int i = 0;
+        for (Object element : set) {
+            if (!(element instanceof String)) {
+                throw new IllegalArgumentException("Unsupported type: Set of " + typeName(element));
+            }
+            elements[i] = ((String) element).getBytes(UTF_8);
+            length += 4 + elements[i].length;
+            i++;
+        }
+        byte[] out = new byte[length];
+        out[0] = TYPE_STRING_SET;
+        putInt(out, 1, elements.length);
+        int offset = 5;
+        for (byte[] element : elements) {
+            putInt(out, offset, element.length);
+            System.arraycopy(element, 0, out, offset + 4, element.length);
+            offset += 4 + element.length;
+        }
+        return out;
+    }
+
+    private static Set<String> decodeStringSet(byte[] bytes, int length) {
+        if (length < 5) {
+            throw new IllegalArgumentException("Truncated set");
+        }
+        int count = getInt(bytes, 1);
+        Set<String> set = new HashSet<>();
+        int offset = 5;
+        for (int i = 0; i < count; i++) {
+            if (offset + 4 > length) {
+                throw new IllegalArgumentException("Truncated set");
+            }
+            int size = getInt(bytes, offset);
+            if (size < 0 || offset + 4 + size > length) {
+                throw new IllegalArgumentException("Truncated set");
+            }
+            set.add(new String(bytes, offset + 4, size, UTF_8));
+            offset += 4 + size;
+        }
+        return set;
+    }
+
+    /**
+     * Gets the name of the type of a decoded value, used in error messages.
+     *
+     * @param value the value
+     * @return the type name
+     */
+    static String typeName(Object value) {
+        return value == null ? "null" : value.getClass().getSimpleName();
+    }
+
+    private static void checkLength(int length, int expected) {
+        if (length != 1 + expected) {
+            throw new IllegalArgumentException("Expected " + expected + " bytes, got " + (length - 1));
+        }
+    }
+
+    static void putInt(byte[] out, int offset, int v) {
+        out[offset] = (byte) (v >>> 24);
+        out[offset + 1] = (byte) (v >>> 16);
+        out[offset + 2] = (byte) (v >>> 8);
+        out[offset + 3] = (byte) v;
+    }
+
+    static void putLong(byte[] out, int offset, long v) {
+        putInt(out, offset, (int) (v >>> 32));
+        putInt(out, offset + 4, (int) v);
+    }
+
+    static int getInt(byte[] in, int offset) {
+        return (in[offset] & 0xFF) << 24
+                | (in[offset + 1] & 0xFF) << 16
+                | (in[offset + 2] & 0xFF) << 8
+                | (in[offset + 3] & 0xFF);
+    }
+
+    static long getLong(byte[] in, int offset) {
+        return (long) getInt(in, offset) << 32 | getInt(in, offset + 4) & 0xFFFFFFFFL;
+    }
+
+}